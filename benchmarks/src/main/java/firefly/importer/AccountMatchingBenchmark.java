@@ -0,0 +1,68 @@
+package firefly.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching the products of an export to Firefly III accounts by account
+ * number, IBAN and notes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountMatchingBenchmark {
+
+    // Products looked up per benchmark call, a few of them unknown
+    private static final int PRODUCTS = 20;
+    private static final int UNKNOWN_PRODUCTS = 4;
+
+    @Param({"10", "100", "1000"})
+    public int accounts;
+
+    private List<AccountIndex.AccountItem> items;
+    private AccountIndex index;
+    private List<String> productNumbers;
+
+    @Setup
+    public void setup() {
+        SyntheticExport export = new SyntheticExport(accounts, BenchmarkFixtures.SEED);
+        items = BenchmarkFixtures.accounts(export);
+        index = new AccountIndex(items);
+        productNumbers = new ArrayList<>();
+        List<SyntheticExport.Product> products = export.products();
+        for (int i = 0; i < PRODUCTS - UNKNOWN_PRODUCTS; i++) {
+            // Spread over the whole list, where later accounts are the slowest to match
+            productNumbers.add(BenchmarkFixtures.productNumber(products.get((int) ((long) i * products.size() / (PRODUCTS - UNKNOWN_PRODUCTS)))));
+        }
+        for (int i = 0; i < UNKNOWN_PRODUCTS; i++) {
+            productNumbers.add("9999000" + i);
+        }
+    }
+
+    @Benchmark
+    public AccountIndex buildIndex() {
+        return new AccountIndex(items);
+    }
+
+    @Benchmark
+    public Map<String, String> resolve() {
+        return index.resolve(productNumbers);
+    }
+}
@@ -0,0 +1,88 @@
+package firefly.importer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic fixtures for the benchmarks, built from the same synthetic
+ * Greek exports as the {@code bench} command.
+ */
+final class BenchmarkFixtures {
+
+    static final long SEED = 42;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return The data lines of a synthetic export, without title, header and
+     *         trailer
+     */
+    static List<String> dataLines(SyntheticExport export, int rows) {
+        try {
+            Path file = Files.createTempFile("firefly-importer-benchmark", ".txt");
+            try {
+                export.write(file, rows);
+                List<String> lines = Files.readAllLines(file);
+                int header = 0;
+                while (!lines.get(header).startsWith("Κατηγορία\t")) {
+                    header++;
+                }
+                return new ArrayList<>(lines.subList(header + 1, header + 1 + rows));
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Firefly III accounts matching the products of the export, with IDs
+     *         starting from 1
+     */
+    static List<AccountIndex.AccountItem> accounts(SyntheticExport export) {
+        List<AccountIndex.AccountItem> accounts = new ArrayList<>();
+        for (SyntheticExport.Product product : export.products()) {
+            AccountIndex.AccountItem account = new AccountIndex.AccountItem();
+            account.id = Integer.toString(accounts.size() + 1);
+            account.attributes = new AccountIndex.AccountAttributes();
+            account.attributes.name = product.label();
+            account.attributes.account_number = product.accountNumber();
+            account.attributes.iban = product.iban();
+            account.attributes.notes = product.notes();
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    /**
+     * @return The product number of a product as the importer normalizes it
+     */
+    static String productNumber(SyntheticExport.Product product) {
+        RowTokenizer tokenizer = new RowTokenizer();
+        tokenizer.tokenize("-\t-\t1/1/2024\t" + product.label() + "\t0,00 €");
+        return tokenizer.productNumber(3);
+    }
+
+    /**
+     * Convert data lines to rows the way the importer does, resolving products
+     * against the given index.
+     */
+    static List<PiraeusImporter.Row> rows(List<String> lines, AccountIndex index) {
+        RowTokenizer tokenizer = new RowTokenizer();
+        List<PiraeusImporter.Row> rows = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            tokenizer.tokenize(line);
+            String productNumber = tokenizer.productNumber(3);
+            String accountId = index.resolve(List.of(productNumber)).get(productNumber);
+            rows.add(new PiraeusImporter.Row(line, tokenizer.internedString(0), tokenizer.string(1), tokenizer.isoDate(2),
+                    productNumber, tokenizer.amount(4), accountId));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,87 @@
+package firefly.importer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting export rows into fields and converting the fields. Every
+ * benchmark tokenizes the rows, so {@link #tokenize} is the baseline of the
+ * conversions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowParsingBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private List<String> lines;
+    private RowTokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        lines = BenchmarkFixtures.dataLines(new SyntheticExport(20, BenchmarkFixtures.SEED), ROWS);
+        tokenizer = new RowTokenizer();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(tokenizer.tokenize(line));
+        }
+    }
+
+    @Benchmark
+    public void productNumber(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.tokenize(line);
+            blackhole.consume(tokenizer.productNumber(3));
+        }
+    }
+
+    @Benchmark
+    public void amount(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.tokenize(line);
+            blackhole.consume(tokenizer.amount(4));
+        }
+    }
+
+    @Benchmark
+    public void isoDate(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.tokenize(line);
+            blackhole.consume(tokenizer.isoDate(2));
+        }
+    }
+
+    /**
+     * Everything the importer extracts from a row, except the account lookup.
+     */
+    @Benchmark
+    public void row(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.tokenize(line);
+            blackhole.consume(tokenizer.internedString(0));
+            blackhole.consume(tokenizer.string(1));
+            blackhole.consume(tokenizer.isoDate(2));
+            blackhole.consume(tokenizer.productNumber(3));
+            blackhole.consume(tokenizer.amount(4));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package firefly.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning converted rows into transactions, pairing the legs of transfers, and
+ * serializing transactions into request bodies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionBenchmark {
+
+    private static final int ROWS = 1000;
+    private static final int PAIRING_WINDOW = 64;
+
+    private PiraeusImporter importer;
+    private List<PiraeusImporter.Row> rows;
+    private List<PiraeusImporter.Transaction> transactions;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        SyntheticExport export = new SyntheticExport(20, BenchmarkFixtures.SEED);
+        AccountIndex index = new AccountIndex(BenchmarkFixtures.accounts(export));
+        rows = BenchmarkFixtures.rows(BenchmarkFixtures.dataLines(export, ROWS), index);
+        importer = new PiraeusImporter();
+        transactions = new ArrayList<>();
+        PiraeusImporter.TransactionBuilder builder = importer.new TransactionBuilder(PAIRING_WINDOW, transactions::add);
+        for (PiraeusImporter.Row row : rows) {
+            builder.add(row);
+        }
+        builder.finish();
+    }
+
+    @Benchmark
+    public void pairTransfers(Blackhole blackhole) throws InterruptedException {
+        PiraeusImporter.TransactionBuilder builder = importer.new TransactionBuilder(PAIRING_WINDOW, blackhole::consume);
+        for (PiraeusImporter.Row row : rows) {
+            builder.add(row);
+        }
+        builder.finish();
+    }
+
+    @Benchmark
+    public void serializePayloads(Blackhole blackhole) {
+        for (PiraeusImporter.Transaction transaction : transactions) {
+            blackhole.consume(importer.toJson(transaction));
+        }
+    }
+}
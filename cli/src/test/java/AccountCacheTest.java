@@ -0,0 +1,233 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The persistent account cache: its file, expiry and invalidation, and its use
+ * by an import.
+ */
+class AccountCacheTest {
+
+    private static final Duration TTL = Duration.ofHours(24);
+
+    @TempDir
+    Path dir;
+
+    private Path file() {
+        return dir.resolve("accounts.tsv");
+    }
+
+    private static Map<String, String> accountIds(String... productsAndIds) {
+        Map<String, String> ids = new HashMap<>();
+        for (int i = 0; i < productsAndIds.length; i += 2) {
+            ids.put(productsAndIds[i], productsAndIds[i + 1]);
+        }
+        return ids;
+    }
+
+    private void write(String... lines) throws IOException {
+        Files.writeString(file(), String.join("\n", lines) + "\n", StandardCharsets.UTF_8);
+    }
+
+    private static long secondsAgo(Duration duration) {
+        return Instant.now().minus(duration).getEpochSecond();
+    }
+
+    // File
+
+    @Test
+    void keepsEntriesAndTheAccountCountAcrossRuns() throws IOException {
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertTrue(cache.isEmpty());
+        cache.validate(5);
+        cache.putAll(accountIds("5001001234567", "1", "4111222233334444", null));
+        cache.save();
+
+        AccountCache loaded = AccountCache.load(file(), TTL);
+        assertEquals(5, loaded.accountCount());
+        assertEquals("1", loaded.get("5001001234567"));
+        // Cached as not found, unlike a product never looked up
+        assertTrue(loaded.contains("4111222233334444"));
+        assertNull(loaded.get("4111222233334444"));
+        assertFalse(loaded.contains("GR1601101250000000012300695"));
+    }
+
+    @Test
+    void onlyWritesWhenChanged() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\t" + secondsAgo(Duration.ofHours(1)));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        Files.delete(file());
+        cache.save();
+        assertFalse(Files.exists(file()));
+
+        cache.putAll(accountIds("4111222233334444", "2"));
+        cache.save();
+        assertTrue(Files.exists(file()));
+    }
+
+    @Test
+    void missingFileIsAnEmptyCache() {
+        AccountCache cache = AccountCache.load(dir.resolve("missing.tsv"), TTL);
+        assertTrue(cache.isEmpty());
+        assertEquals(-1, cache.accountCount());
+    }
+
+    @Test
+    void corruptFileIsIgnoredAndReplaced() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\tnot a number");
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertTrue(cache.isEmpty());
+        assertEquals(-1, cache.accountCount());
+
+        cache.validate(5);
+        cache.save();
+        AccountCache rewritten = AccountCache.load(file(), TTL);
+        assertEquals(5, rewritten.accountCount());
+        assertTrue(rewritten.isEmpty());
+    }
+
+    @Test
+    void skipsLinesWithAnotherNumberOfFields() throws IOException {
+        write("#accounts\t5", "too\tmany\tfields\there", "5001001234567\t1\t" + secondsAgo(Duration.ZERO), "");
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertEquals("1", cache.get("5001001234567"));
+        assertFalse(cache.contains("too"));
+    }
+
+    @Test
+    void separatesInstancesAndTokens() {
+        Path one = AccountCache.fileFor(dir, "https://firefly.example.com", "token one");
+        assertEquals(one, AccountCache.fileFor(dir, "https://firefly.example.com", "token one"));
+        assertNotEquals(one, AccountCache.fileFor(dir, "https://firefly.example.com", "token two"));
+        assertNotEquals(one, AccountCache.fileFor(dir, "https://other.example.com", "token one"));
+        assertEquals(dir, one.getParent());
+        assertFalse(one.getFileName().toString().contains("token"));
+    }
+
+    // Expiry
+
+    @Test
+    void dropsExpiredEntries() throws IOException {
+        write("#accounts\t5",
+              "5001001234567\t1\t" + secondsAgo(Duration.ofHours(23)),
+              "4111222233334444\t2\t" + secondsAgo(Duration.ofHours(25)));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertEquals("1", cache.get("5001001234567"));
+        assertFalse(cache.contains("4111222233334444"));
+
+        // The expired entry is gone from the file too
+        cache.save();
+        assertFalse(Files.readString(file()).contains("4111222233334444"));
+    }
+
+    @Test
+    void refreshedEntryExpiresLater() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\t" + secondsAgo(Duration.ofHours(25)));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        cache.putAll(accountIds("5001001234567", "1"));
+        cache.save();
+
+        assertEquals("1", AccountCache.load(file(), TTL).get("5001001234567"));
+    }
+
+    // Invalidation by the number of accounts
+
+    @Test
+    void sameAccountCountKeepsTheEntries() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\t" + secondsAgo(Duration.ZERO));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertTrue(cache.validate(5));
+        assertEquals("1", cache.get("5001001234567"));
+    }
+
+    @Test
+    void changedAccountCountDropsTheEntries() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\t" + secondsAgo(Duration.ZERO));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        assertFalse(cache.validate(6));
+        assertTrue(cache.isEmpty());
+        assertEquals(6, cache.accountCount());
+    }
+
+    @Test
+    void accountsCreatedByTheRunDoNotInvalidateTheCache() throws IOException {
+        write("#accounts\t5", "5001001234567\t1\t" + secondsAgo(Duration.ZERO));
+        AccountCache cache = AccountCache.load(file(), TTL);
+        cache.accountsCreated(2);
+        cache.save();
+
+        assertTrue(AccountCache.load(file(), TTL).validate(7));
+    }
+
+    @Test
+    void emptyCacheIsWrittenEvenWithoutEntries() throws IOException {
+        AccountCache cache = AccountCache.empty(file(), TTL);
+        cache.validate(3);
+        cache.save();
+        assertEquals(3, AccountCache.load(file(), TTL).accountCount());
+    }
+
+    // Use by an import
+
+    private int importFile(FakeFirefly firefly, Path file, String... options) {
+        String[] args = new String[options.length + 7];
+        args[0] = "--url";
+        args[1] = firefly.url();
+        args[2] = "--token";
+        args[3] = "test";
+        args[4] = "--cache-dir";
+        args[5] = dir.resolve("cache").toString();
+        System.arraycopy(options, 0, args, 6, options.length);
+        args[args.length - 1] = file.toString();
+        return new CommandLine(new PiraeusImporter()).execute(args);
+    }
+
+    @Test
+    void secondImportOnlyCountsTheAccounts() throws IOException {
+        try (FakeFirefly firefly = new FakeFirefly()) {
+            firefly.addAccount("Savings", "5001001234567", null, null);
+            Path file = FakeFirefly.export(dir.resolve("export.txt"),
+                    FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", "5001 0012 34567 (Ταμιευτήριο)", "-12,50 €"));
+
+            assertEquals(0, importFile(firefly, file, "--dry-run"));
+            int firstRun = firefly.accountRequests();
+            assertEquals(0, importFile(firefly, file, "--dry-run"));
+            assertEquals(1, firefly.accountRequests() - firstRun);
+
+            // An account added in between changes the count, which rebuilds the cache
+            firefly.addAccount("Cash", null, null, null);
+            int beforeChange = firefly.accountRequests();
+            assertEquals(0, importFile(firefly, file, "--dry-run"));
+            assertTrue(firefly.accountRequests() - beforeChange > 1);
+        }
+    }
+
+    @Test
+    void refreshAccountsIgnoresTheCache() throws IOException {
+        try (FakeFirefly firefly = new FakeFirefly()) {
+            firefly.addAccount("Savings", "5001001234567", null, null);
+            Path file = FakeFirefly.export(dir.resolve("export.txt"),
+                    FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", "5001 0012 34567 (Ταμιευτήριο)", "-12,50 €"));
+
+            assertEquals(0, importFile(firefly, file, "--dry-run"));
+            int firstRun = firefly.accountRequests();
+            assertEquals(0, importFile(firefly, file, "--dry-run", "--refresh-accounts"));
+            assertEquals(firstRun, firefly.accountRequests() - firstRun);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Matching of product numbers to accounts by {@link AccountIndex}, and the
+ * {@link AhoCorasick} automaton it searches the notes with.
+ */
+class AccountIndexTest {
+
+    private static final String SAVINGS = "5001001234567";
+    private static final String IBAN = "GR1601101250000000012300695";
+    private static final String CARD = "4111222233334444";
+
+    private final List<AccountIndex.AccountItem> accounts = new ArrayList<>();
+
+    private void account(String accountNumber, String iban, String notes) {
+        AccountIndex.AccountItem item = new AccountIndex.AccountItem();
+        item.id = Integer.toString(accounts.size() + 1);
+        item.attributes = new AccountIndex.AccountAttributes();
+        item.attributes.name = "Account " + item.id;
+        item.attributes.account_number = accountNumber;
+        item.attributes.iban = iban;
+        item.attributes.notes = notes;
+        accounts.add(item);
+    }
+
+    private Map<String, String> resolve(String... products) {
+        return new AccountIndex(accounts).resolve(List.of(products));
+    }
+
+    // Aho-Corasick
+
+    private static int[] matches(List<String> patterns, String text) {
+        int[] counts = new int[patterns.size()];
+        new AhoCorasick(patterns).search(text, p -> counts[p]++);
+        return counts;
+    }
+
+    // What the automaton replaced: one indexOf sweep per pattern
+    private static int[] referenceMatches(List<String> patterns, String text) {
+        int[] counts = new int[patterns.size()];
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+                counts[p]++;
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    void findsOverlappingPatterns() {
+        assertArrayEquals(new int[] {1, 1, 1, 0}, matches(List.of("he", "she", "hers", "his"), "ushers"));
+    }
+
+    @Test
+    void reportsEveryOccurrence() {
+        assertArrayEquals(new int[] {3, 2}, matches(List.of("a", "aa"), "aaa"));
+        assertArrayEquals(new int[] {2}, matches(List.of("1234"), "Card 1234, replaced by card 1234"));
+    }
+
+    @Test
+    void ignoresEmptyPatterns() {
+        assertArrayEquals(new int[] {0, 1}, matches(List.of("", "x"), "x"));
+    }
+
+    @Test
+    void matchesGreekText() {
+        assertArrayEquals(new int[] {1, 0}, matches(List.of("Ταμιευτήριο", "Όψεως"), "Λογαριασμός Ταμιευτήριο 5001"));
+    }
+
+    @Test
+    void findsWhatIndexOfFinds() {
+        Random random = new Random(42);
+        for (int n = 0; n < 2_000; n++) {
+            List<String> patterns = new ArrayList<>();
+            for (int p = random.nextInt(6); p >= 0; p--) {
+                patterns.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            String text = randomString(random, random.nextInt(40));
+            assertArrayEquals(referenceMatches(patterns, text), matches(patterns, text), () -> patterns + " in " + text);
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = "abc".charAt(random.nextInt(3));
+        }
+        return new String(chars);
+    }
+
+    // Matching fields
+
+    @Test
+    void matchesTheAccountNumber() {
+        account(SAVINGS, null, null);
+        assertEquals("1", resolve(SAVINGS).get(SAVINGS));
+    }
+
+    @Test
+    void matchesTheIban() {
+        account(null, IBAN, null);
+        assertEquals("1", resolve(IBAN).get(IBAN));
+    }
+
+    @Test
+    void matchesAnywhereInTheNotes() {
+        account(null, null, "Visa Gold, card " + CARD + " since 2020");
+        assertEquals("1", resolve(CARD).get(CARD));
+    }
+
+    @Test
+    void doesNotMatchPartOfTheAccountNumberOrIban() {
+        account(SAVINGS + "0", "X" + IBAN, null);
+        Map<String, String> resolved = resolve(SAVINGS, IBAN);
+        assertNull(resolved.get(SAVINGS));
+        assertNull(resolved.get(IBAN));
+    }
+
+    @Test
+    void keepsUnmatchedProductsWithoutAnAccount() {
+        account(SAVINGS, null, null);
+        Map<String, String> resolved = resolve(SAVINGS, CARD);
+        assertEquals(2, resolved.size());
+        assertTrue(resolved.containsKey(CARD));
+        assertNull(resolved.get(CARD));
+    }
+
+    @Test
+    void resolvesRepeatedProductsOnce() {
+        account(SAVINGS, null, null);
+        assertEquals(Map.of(SAVINGS, "1"), resolve(SAVINGS, SAVINGS));
+    }
+
+    // Precedence: the first account in listing order wins, whichever field matched
+
+    @Test
+    void earlierNotesWinOverALaterAccountNumber() {
+        account(null, null, "Old savings " + SAVINGS);
+        account(SAVINGS, null, null);
+        assertEquals("1", resolve(SAVINGS).get(SAVINGS));
+    }
+
+    @Test
+    void earlierAccountNumberWinsOverLaterNotes() {
+        account(SAVINGS, null, null);
+        account(null, null, SAVINGS);
+        assertEquals("1", resolve(SAVINGS).get(SAVINGS));
+    }
+
+    @Test
+    void earlierIbanWinsOverALaterAccountNumber() {
+        account(null, SAVINGS, null);
+        account(SAVINGS, null, null);
+        assertEquals("1", resolve(SAVINGS).get(SAVINGS));
+    }
+
+    @Test
+    void firstOfSeveralNotesWins() {
+        account(null, null, null);
+        account(null, null, "Card " + CARD);
+        account(null, null, "Replacement of card " + CARD);
+        assertEquals("2", resolve(CARD).get(CARD));
+    }
+
+    @Test
+    void eachProductGetsItsOwnFirstMatch() {
+        account(null, null, "Cards " + CARD + " and 4111222233335555");
+        account(SAVINGS, IBAN, null);
+        account(null, null, SAVINGS + " " + IBAN);
+        assertEquals(Map.of(CARD, "1", "4111222233335555", "1", SAVINGS, "2", IBAN, "2"),
+                     resolve(CARD, "4111222233335555", SAVINGS, IBAN));
+    }
+
+    @Test
+    void addedAccountGoesLast() {
+        account(null, null, "Savings " + SAVINGS);
+        AccountIndex index = new AccountIndex(accounts);
+        AccountIndex.AccountItem created = new AccountIndex.AccountItem();
+        created.id = "99";
+        created.attributes = new AccountIndex.AccountAttributes();
+        created.attributes.account_number = SAVINGS;
+        created.attributes.iban = IBAN;
+        index.add(created);
+
+        assertEquals(Map.of(SAVINGS, "1", IBAN, "99"), index.resolve(List.of(SAVINGS, IBAN)));
+        assertEquals(2, index.size());
+    }
+
+    // Loading from Firefly III
+
+    @Test
+    void loadsEveryPage() throws IOException, InterruptedException {
+        try (FakeFirefly firefly = new FakeFirefly()) {
+            Map<String, String> expected = new HashMap<>();
+            for (int i = 0; i < 250; i++) {
+                String number = String.format("5001%09d", i);
+                expected.put(number, firefly.addAccount("Account " + i, number, null, null));
+            }
+            ReusableOptions api = firefly.api();
+            AccountIndex index = AccountIndex.load(api);
+
+            assertEquals(250, index.size());
+            assertEquals(250, AccountIndex.count(api));
+            assertEquals(expected, index.resolve(expected.keySet()));
+            // Three pages of 100 for the index, then a page of one account for the count
+            assertEquals(4, firefly.accountRequests());
+        }
+    }
+
+    @Test
+    void parsesNullFieldsAndSkipsUnknownOnes() {
+        String page = "{\"data\":[{\"type\":\"accounts\",\"id\":\"7\",\"links\":{\"self\":\"x\"},"
+                      + "\"attributes\":{\"name\":\"Cash\",\"active\":true,\"account_number\":null,\"iban\":\"" + IBAN + "\","
+                      + "\"notes\":null,\"order\":[1,{\"a\":2}]}}],"
+                      + "\"meta\":{\"pagination\":{\"total\":1,\"count\":1,\"total_pages\":1}}}";
+        AccountIndex.AccountsResponse response = AccountIndex.parsePage(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, response.data.size());
+        assertEquals("7", response.data.get(0).id);
+        assertEquals("Cash", response.data.get(0).attributes.name);
+        assertNull(response.data.get(0).attributes.account_number);
+        assertEquals(IBAN, response.data.get(0).attributes.iban);
+        assertEquals(1, response.meta.pagination.total);
+        assertEquals(1, response.meta.pagination.total_pages);
+    }
+}
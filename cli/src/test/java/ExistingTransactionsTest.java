@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Matching prepared transactions against the ones Firefly III already has, for
+ * --skip-existing.
+ */
+class ExistingTransactionsTest {
+
+    private static final String PRODUCT = "5001 0012 34567 (Ταμιευτήριο)";
+
+    private final FakeFirefly firefly = new FakeFirefly();
+    private final String savings = firefly.addAccount("Savings", "5001001234567", null, null);
+    private final String card = firefly.addAccount("Card", null, null, "Card 4111222233334444");
+
+    @TempDir
+    Path dir;
+
+    ExistingTransactionsTest() throws IOException {
+    }
+
+    @AfterEach
+    void stopServer() {
+        firefly.close();
+    }
+
+    private ExistingTransactions load(String... accountIds) throws IOException, InterruptedException {
+        return ExistingTransactions.load(firefly.api(), List.of(accountIds), "2024-03-01", "2024-03-31");
+    }
+
+    private void withdrawal(String groupId, String date, String amount, String description) {
+        firefly.addExisting(savings, groupId, "withdrawal", date, amount, description, savings, null);
+    }
+
+    // Matching
+
+    @Test
+    void matchesDateAmountAccountsAndDescription() throws IOException, InterruptedException {
+        withdrawal("1", "2024-03-01T00:00:00+02:00", "12.50", "ΑΓΟΡΑ");
+        ExistingTransactions existing = load(savings);
+
+        assertEquals(1, existing.size());
+        assertFalse(existing.remove("2024-03-02", 1250, savings, null, "ΑΓΟΡΑ"));
+        assertFalse(existing.remove("2024-03-01", 1251, savings, null, "ΑΓΟΡΑ"));
+        assertFalse(existing.remove("2024-03-01", 1250, card, null, "ΑΓΟΡΑ"));
+        assertFalse(existing.remove("2024-03-01", 1250, null, savings, "ΑΓΟΡΑ"));
+        assertFalse(existing.remove("2024-03-01", 1250, savings, null, "ΑΓΟΡΑ 2"));
+        assertTrue(existing.remove("2024-03-01", 1250, savings, null, "ΑΓΟΡΑ"));
+    }
+
+    @Test
+    void identicalTransactionsAreCountedNotCollapsed() throws IOException, InterruptedException {
+        withdrawal("1", "2024-03-01", "12.50", "ΑΓΟΡΑ");
+        withdrawal("2", "2024-03-01", "12.50", "ΑΓΟΡΑ");
+        ExistingTransactions existing = load(savings);
+
+        assertEquals(2, existing.size());
+        assertTrue(existing.remove("2024-03-01", 1250, savings, null, "ΑΓΟΡΑ"));
+        assertTrue(existing.remove("2024-03-01", 1250, savings, null, "ΑΓΟΡΑ"));
+        // Each existing copy matches one prepared copy only
+        assertFalse(existing.remove("2024-03-01", 1250, savings, null, "ΑΓΟΡΑ"));
+    }
+
+    @Test
+    void transferListedForBothAccountsCountsOnce() throws IOException, InterruptedException {
+        firefly.addExisting(savings, "1", "transfer", "2024-03-05", "300.00", "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ", savings, card);
+        firefly.addExisting(card, "1", "transfer", "2024-03-05", "300.00", "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ", savings, card);
+        ExistingTransactions existing = load(savings, card);
+
+        assertEquals(1, existing.size());
+        assertTrue(existing.remove("2024-03-05", 30000, savings, card, "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ"));
+        assertFalse(existing.remove("2024-03-05", 30000, savings, card, "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ"));
+    }
+
+    @Test
+    void depositMatchesByDestination() throws IOException, InterruptedException {
+        firefly.addExisting(savings, "1", "deposit", "2024-03-01", "1500", "ΜΙΣΘΟΔΟΣΙΑ", "99", savings);
+        ExistingTransactions existing = load(savings);
+
+        // The revenue account of a deposit is not part of the key
+        assertTrue(existing.remove("2024-03-01", 150000, null, savings, "ΜΙΣΘΟΔΟΣΙΑ"));
+    }
+
+    @Test
+    void ignoresOtherTypesAndUnreadableAmounts() throws IOException, InterruptedException {
+        firefly.addExisting(savings, "1", "opening balance", "2024-03-01", "100.00", "Start", null, savings);
+        withdrawal("2", "2024-03-01", "not a number", "ΑΓΟΡΑ");
+        withdrawal("3", "2024-03-01", "1.00", "ΑΓΟΡΑ");
+
+        assertEquals(1, load(savings).size());
+    }
+
+    @Test
+    void loadsEveryPage() throws IOException, InterruptedException {
+        for (int i = 0; i < 250; i++) {
+            withdrawal(Integer.toString(i), "2024-03-01", "1.00", "ΑΓΟΡΑ " + i);
+        }
+        ExistingTransactions existing = load(savings);
+
+        assertEquals(250, existing.size());
+        assertTrue(existing.remove("2024-03-01", 100, savings, null, "ΑΓΟΡΑ 249"));
+    }
+
+    // Use by an import
+
+    @Test
+    void importSkipsOnlyAsManyCopiesAsExist() throws IOException {
+        withdrawal("1", "2024-03-01", "12.50", "ΑΓΟΡΑ");
+        Path file = FakeFirefly.export(dir.resolve("export.txt"),
+                FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", PRODUCT, "-12,50 €"),
+                FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", PRODUCT, "-12,50 €"),
+                FakeFirefly.row("Αγορές", "ΚΑΦΕΣ", "2/3/2024", PRODUCT, "-3,00 €"));
+
+        int exitCode = new CommandLine(new PiraeusImporter()).execute(
+                "--url", firefly.url(), "--token", "test", "--cache-dir", dir.resolve("cache").toString(),
+                "--skip-existing", file.toString());
+
+        assertEquals(0, exitCode);
+        assertEquals(2, firefly.created().size());
+        assertEquals(1, firefly.created().stream().filter(body -> body.contains("ΑΓΟΡΑ")).count());
+    }
+}
@@ -0,0 +1,194 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Firefly III API for tests, on a loopback port: lists asset accounts and the
+ * existing transactions of an account, and records the transactions created.
+ *
+ * Unlike {@link FireflyStandIn} it fails only the requests a test asks it to.
+ */
+class FakeFirefly implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<String[]> accounts = new CopyOnWriteArrayList<>();
+    private final Map<String, List<String>> existing = new ConcurrentHashMap<>();
+    private final List<String> created = new CopyOnWriteArrayList<>();
+    private final AtomicInteger accountRequests = new AtomicInteger();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    // Status of a transaction creation, by request body; only 200 creates it
+    volatile ToIntFunction<String> transactionStatus = body -> 200;
+
+    // Sent with 429 and 503 responses
+    volatile int retryAfterSeconds = 1;
+
+    FakeFirefly() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/v1/accounts", this::accounts);
+        server.createContext("/api/v1/transactions", this::transactions);
+        server.start();
+    }
+
+    /**
+     * @return The ID of the account, its position in the listing counting from 1
+     */
+    String addAccount(String name, String accountNumber, String iban, String notes) {
+        String id = Integer.toString(accounts.size() + 1);
+        accounts.add(new String[] {id, name, accountNumber, iban, notes});
+        return id;
+    }
+
+    /**
+     * Add a transaction Firefly III already has, listed for the given account.
+     */
+    void addExisting(String accountId, String groupId, String type, String date, String amount, String description,
+                     String sourceId, String destinationId) {
+        existing.computeIfAbsent(accountId, a -> new CopyOnWriteArrayList<>()).add(
+                "{\"type\":\"transactions\",\"id\":\"" + groupId + "\",\"attributes\":{\"transactions\":[{\"type\":\"" + type
+                + "\",\"date\":\"" + date + "\",\"amount\":\"" + amount + "\",\"description\":\"" + description
+                + "\",\"source_id\":" + quoted(sourceId) + ",\"destination_id\":" + quoted(destinationId) + "}]}}");
+    }
+
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return The bodies of the transactions created, in the order they arrived
+     */
+    List<String> created() {
+        return created;
+    }
+
+    /**
+     * @return The number of requests for the account listing
+     */
+    int accountRequests() {
+        return accountRequests.get();
+    }
+
+    /**
+     * Options of a command talking to this server, as if parsed from the
+     * command line with the defaults.
+     */
+    ReusableOptions api() {
+        ReusableOptions api = new ReusableOptions();
+        api.fireflyUrl = url();
+        api.apiToken = "test";
+        api.connectTimeout = 10;
+        api.requestTimeout = 10;
+        api.maxRetries = 0;
+        return api;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).close();
+    }
+
+    /**
+     * Write a Piraeus export with the given data rows, each of them the category,
+     * description, date, product and amount columns.
+     */
+    static Path export(Path file, String[]... rows) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("Πειραιώς e-banking\n\n");
+            out.write("Κατηγορία\tΠεριγραφή Συναλλαγής\tΗμερομηνία Καταχώρησης\tΑριθμός Προϊόντος\tΠοσό\n");
+            for (String[] row : rows) {
+                out.write(String.join("\t", row) + "\n");
+            }
+            out.write("Σύνολο κινήσεων: " + rows.length + "\n");
+        }
+        return file;
+    }
+
+    static String[] row(String category, String description, String date, String product, String amount) {
+        return new String[] {category, description, date, product, amount};
+    }
+
+    private void accounts(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            int page = Integer.parseInt(parameter(query, "page", "1"));
+            int limit = Integer.parseInt(parameter(query, "limit", "50"));
+            List<String> items = new ArrayList<>();
+            int total;
+            if (path.matches("/api/v1/accounts/\\d+/transactions")) {
+                List<String> groups = existing.getOrDefault(path.split("/")[4], List.of());
+                total = groups.size();
+                for (int i = (page - 1) * limit; i < Math.min(page * limit, total); i++) {
+                    items.add(groups.get(i));
+                }
+            } else {
+                accountRequests.incrementAndGet();
+                total = accounts.size();
+                for (int i = (page - 1) * limit; i < Math.min(page * limit, total); i++) {
+                    String[] a = accounts.get(i);
+                    items.add("{\"type\":\"accounts\",\"id\":\"" + a[0] + "\",\"attributes\":{\"name\":" + quoted(a[1])
+                              + ",\"account_number\":" + quoted(a[2]) + ",\"iban\":" + quoted(a[3]) + ",\"notes\":" + quoted(a[4]) + "}}");
+                }
+            }
+            int totalPages = Math.max(1, (total + limit - 1) / limit);
+            send(exchange, 200, "{\"data\":[" + String.join(",", items) + "],\"meta\":{\"pagination\":{\"total\":" + total
+                                + ",\"per_page\":" + limit + ",\"current_page\":" + page + ",\"total_pages\":" + totalPages + "}}}");
+        }
+    }
+
+    private void transactions(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            int status = transactionStatus.applyAsInt(body);
+            if (status != 200) {
+                if (status == 429 || status == 503) {
+                    exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+                }
+                send(exchange, status, "{\"message\":\"Rejected by the test\"}");
+                return;
+            }
+            created.add(body);
+            send(exchange, 200, "{\"data\":{\"type\":\"transactions\",\"id\":\"" + ids.incrementAndGet() + "\"}}");
+        }
+    }
+
+    private static String parameter(String query, String name, String defaultValue) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String quoted(String value) {
+        return value == null ? "null" : "\"" + value + "\"";
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.api+json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
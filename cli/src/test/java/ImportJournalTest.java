@@ -0,0 +1,213 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The import journal, and resuming an import with --resume.
+ */
+class ImportJournalTest {
+
+    private static final String PRODUCT = "5001 0012 34567 (Ταμιευτήριο)";
+
+    private final FakeFirefly firefly = new FakeFirefly();
+
+    @TempDir
+    Path dir;
+
+    ImportJournalTest() throws IOException {
+        firefly.addAccount("Savings", "5001001234567", null, null);
+    }
+
+    @AfterEach
+    void stopServer() {
+        firefly.close();
+    }
+
+    private Map<String, Integer> committed(Path journal) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        ImportJournal.readCommitted(journal, counts);
+        return counts;
+    }
+
+    // File
+
+    @Test
+    void countsCopiesOfEachKey() throws IOException {
+        Path file = dir.resolve("export.txt.journal");
+        try (ImportJournal journal = new ImportJournal(file)) {
+            journal.record("a", "1");
+            journal.record("b", "2");
+            journal.record("a", "3");
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        assertEquals(3, ImportJournal.readCommitted(file, counts));
+        assertEquals(Map.of("a", 2, "b", 1), counts);
+        assertEquals("a\t1\nb\t2\na\t3\n", Files.readString(file));
+    }
+
+    @Test
+    void appendsToAnEarlierJournal() throws IOException {
+        Path file = dir.resolve("export.txt.journal");
+        try (ImportJournal journal = new ImportJournal(file)) {
+            journal.record("a", "1");
+        }
+        try (ImportJournal journal = new ImportJournal(file)) {
+            journal.record("a", "2");
+        }
+
+        assertEquals(Map.of("a", 2), committed(file));
+    }
+
+    @Test
+    void addsToTheCountsOfOtherJournals() throws IOException {
+        Path file = dir.resolve("export.txt.journal");
+        Files.writeString(file, "a\t1\nb\t2\n");
+        Map<String, Integer> counts = new HashMap<>(Map.of("a", 1));
+
+        assertEquals(2, ImportJournal.readCommitted(file, counts));
+        assertEquals(Map.of("a", 2, "b", 1), counts);
+    }
+
+    @Test
+    void ignoresATornLastLine() throws IOException {
+        Path file = dir.resolve("export.txt.journal");
+        Files.writeString(file, "a\t1\nb\t2\nc");
+
+        assertEquals(Map.of("a", 1, "b", 1), committed(file));
+    }
+
+    @Test
+    void recordsAMissingIdAsEmpty() throws IOException {
+        Path file = dir.resolve("export.txt.journal");
+        try (ImportJournal journal = new ImportJournal(file)) {
+            journal.record("a", null);
+        }
+
+        assertEquals("a\t\n", Files.readString(file));
+        assertEquals(Map.of("a", 1), committed(file));
+    }
+
+    @Test
+    void missingJournalHasNothingCommitted() throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        assertEquals(0, ImportJournal.readCommitted(dir.resolve("missing.journal"), counts));
+        assertEquals(Map.of(), counts);
+    }
+
+    @Test
+    void journalIsNextToTheDataFile() {
+        assertEquals(dir.resolve("export.txt.journal"), ImportJournal.fileFor(dir.resolve("export.txt")));
+    }
+
+    // Resuming an import
+
+    private Path export() throws IOException {
+        // The first two rows are identical, so they are only told apart by how many copies were committed
+        return FakeFirefly.export(dir.resolve("export.txt"),
+                FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", PRODUCT, "-12,50 €"),
+                FakeFirefly.row("Αγορές", "ΑΓΟΡΑ", "1/3/2024", PRODUCT, "-12,50 €"),
+                FakeFirefly.row("Αγορές", "ΚΑΦΕΣ", "2/3/2024", PRODUCT, "-3,00 €"));
+    }
+
+    private int importFile(Path file, String... options) {
+        List<String> args = new ArrayList<>(List.of("--url", firefly.url(), "--token", "test",
+                                                     "--cache-dir", dir.resolve("cache").toString()));
+        args.addAll(List.of(options));
+        args.add(file.toString());
+        return new CommandLine(new PiraeusImporter()).execute(args.toArray(String[]::new));
+    }
+
+    /**
+     * Fail the second request for the repeated row, as if the first run was
+     * interrupted before it.
+     */
+    private void failSecondCopy() {
+        AtomicInteger copies = new AtomicInteger();
+        firefly.transactionStatus = body -> body.contains("ΑΓΟΡΑ") && copies.incrementAndGet() == 2 ? 422 : 200;
+    }
+
+    private long created(String description) {
+        return firefly.created().stream().filter(body -> body.contains(description)).count();
+    }
+
+    private void assertResumes(String... options) throws IOException {
+        Path file = export();
+        failSecondCopy();
+        assertEquals(1, importFile(file, options));
+        assertEquals(2, firefly.created().size());
+        assertEquals(2, committed(ImportJournal.fileFor(file)).values().stream().mapToInt(Integer::intValue).sum());
+
+        firefly.transactionStatus = body -> 200;
+        List<String> resumeOptions = new ArrayList<>(List.of(options));
+        resumeOptions.add("--resume");
+        assertEquals(0, importFile(file, resumeOptions.toArray(String[]::new)));
+        assertEquals(2, created("ΑΓΟΡΑ"));
+        assertEquals(1, created("ΚΑΦΕΣ"));
+
+        // Nothing left to import
+        assertEquals(0, importFile(file, resumeOptions.toArray(String[]::new)));
+        assertEquals(3, firefly.created().size());
+    }
+
+    @Test
+    void resumeImportsOnlyWhatIsMissing() throws IOException {
+        assertResumes();
+    }
+
+    @Test
+    void resumeImportsOnlyWhatIsMissingWhenStreaming() throws IOException {
+        assertResumes("--stream");
+    }
+
+    @Test
+    void resumeImportsOnlyWhatIsMissingWithConcurrentSubmission() throws IOException {
+        assertResumes("--concurrency", "4");
+    }
+
+    @Test
+    void importWithoutResumeImportsEverythingAgain() throws IOException {
+        Path file = export();
+        assertEquals(0, importFile(file));
+        assertEquals(0, importFile(file));
+
+        assertEquals(6, firefly.created().size());
+        // Both runs are in the journal
+        assertEquals(6, committed(ImportJournal.fileFor(file)).values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    void dryRunWritesNoJournal() throws IOException {
+        Path file = export();
+        assertEquals(0, importFile(file, "--dry-run"));
+
+        assertFalse(Files.exists(ImportJournal.fileFor(file)));
+        assertEquals(0, firefly.created().size());
+    }
+
+    @Test
+    void journalsTheIdsFireflyAssigned() throws IOException {
+        Path file = export();
+        assertEquals(0, importFile(file));
+
+        List<String> ids = Files.readAllLines(ImportJournal.fileFor(file), StandardCharsets.UTF_8).stream()
+                .map(line -> line.substring(line.indexOf('\t') + 1))
+                .sorted()
+                .toList();
+        assertEquals(List.of("1", "2", "3"), ids);
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Importing several files in one run, in particular exports that overlap.
+ */
+class MultiFileImportTest {
+
+    private static final String PRODUCT = "5001 0012 34567 (Ταμιευτήριο)";
+
+    private static final String[] COFFEE = FakeFirefly.row("Αγορές", "ΚΑΦΕΣ", "1/3/2024", PRODUCT, "-3,00 €");
+    private static final String[] RENT = FakeFirefly.row("Λογαριασμοί", "ΕΝΟΙΚΙΟ", "2/3/2024", PRODUCT, "-500,00 €");
+    private static final String[] SALARY = FakeFirefly.row("Μισθός", "ΜΙΣΘΟΔΟΣΙΑ", "3/3/2024", PRODUCT, "1.500,00 €");
+    private static final String[] FUEL = FakeFirefly.row("Καύσιμα", "ΠΡΑΤΗΡΙΟ", "4/3/2024", PRODUCT, "-40,00 €");
+
+    private final FakeFirefly firefly = new FakeFirefly();
+
+    @TempDir
+    Path dir;
+
+    MultiFileImportTest() throws IOException {
+        firefly.addAccount("Savings", "5001001234567", null, null);
+    }
+
+    @AfterEach
+    void stopServer() {
+        firefly.close();
+    }
+
+    private int importFiles(List<String> options, Path... files) {
+        List<String> args = new ArrayList<>(List.of("--url", firefly.url(), "--token", "test",
+                                                     "--cache-dir", dir.resolve("cache").toString()));
+        args.addAll(options);
+        for (Path file : files) {
+            args.add(file.toString());
+        }
+        return new CommandLine(new PiraeusImporter()).execute(args.toArray(String[]::new));
+    }
+
+    private long created(String description) {
+        return firefly.created().stream().filter(body -> body.contains(description)).count();
+    }
+
+    private void assertImportsOverlapOnce(List<String> options) throws IOException {
+        // The second export repeats the last two days of the first
+        Path first = FakeFirefly.export(dir.resolve("2024-03a.txt"), COFFEE, RENT, SALARY);
+        Path second = FakeFirefly.export(dir.resolve("2024-03b.txt"), RENT, SALARY, FUEL);
+
+        assertEquals(0, importFiles(options, first, second));
+        assertEquals(4, firefly.created().size());
+        for (String description : List.of("ΚΑΦΕΣ", "ΕΝΟΙΚΙΟ", "ΜΙΣΘΟΔΟΣΙΑ", "ΠΡΑΤΗΡΙΟ")) {
+            assertEquals(1, created(description), description);
+        }
+    }
+
+    @Test
+    void importsTheOverlapOnce() throws IOException {
+        assertImportsOverlapOnce(List.of());
+    }
+
+    @Test
+    void importsTheOverlapOnceWhenStreaming() throws IOException {
+        assertImportsOverlapOnce(List.of("--stream"));
+    }
+
+    @Test
+    void importsTheOverlapOnceWithConcurrentSubmission() throws IOException {
+        assertImportsOverlapOnce(List.of("--concurrency", "4"));
+    }
+
+    @Test
+    void keepsAsManyCopiesAsTheFileThatHasMost() throws IOException {
+        Path first = FakeFirefly.export(dir.resolve("a.txt"), COFFEE, COFFEE, RENT);
+        Path second = FakeFirefly.export(dir.resolve("b.txt"), COFFEE, RENT, COFFEE, COFFEE);
+        Path third = FakeFirefly.export(dir.resolve("c.txt"), COFFEE);
+
+        assertEquals(0, importFiles(List.of(), first, second, third));
+        assertEquals(3, created("ΚΑΦΕΣ"));
+        assertEquals(1, created("ΕΝΟΙΚΙΟ"));
+    }
+
+    @Test
+    void sameFileTwiceIsImportedOnce() throws IOException {
+        Path file = FakeFirefly.export(dir.resolve("a.txt"), COFFEE, COFFEE, RENT);
+
+        assertEquals(0, importFiles(List.of(), file, file));
+        assertEquals(2, created("ΚΑΦΕΣ"));
+        assertEquals(1, created("ΕΝΟΙΚΙΟ"));
+    }
+
+    @Test
+    void singleFileKeepsRepeatedTransactions() throws IOException {
+        Path file = FakeFirefly.export(dir.resolve("a.txt"), COFFEE, COFFEE, COFFEE);
+
+        assertEquals(0, importFiles(List.of(), file));
+        assertEquals(3, created("ΚΑΦΕΣ"));
+    }
+
+    @Test
+    void resumeTakesTheJournalsOfAllFilesIntoAccount() throws IOException {
+        Path first = FakeFirefly.export(dir.resolve("a.txt"), COFFEE, RENT);
+        Path second = FakeFirefly.export(dir.resolve("b.txt"), RENT, SALARY);
+        // The salary, which only the second file has, fails the first run
+        firefly.transactionStatus = body -> body.contains("ΜΙΣΘΟΔΟΣΙΑ") ? 422 : 200;
+        assertEquals(1, importFiles(List.of(), first, second));
+        assertEquals(2, firefly.created().size());
+
+        firefly.transactionStatus = body -> 200;
+        assertEquals(0, importFiles(List.of("--resume"), first, second));
+        assertEquals(3, firefly.created().size());
+        assertEquals(1, created("ΕΝΟΙΚΙΟ"));
+        assertEquals(1, created("ΜΙΣΘΟΔΟΣΙΑ"));
+    }
+
+    @Test
+    void overlapCommittedFromAnotherFileIsNotSubmittedAgainOnResume() throws IOException {
+        Path first = FakeFirefly.export(dir.resolve("a.txt"), COFFEE, RENT);
+        Path second = FakeFirefly.export(dir.resolve("b.txt"), RENT, SALARY);
+        // Only the first file is imported at first, and only its rent is committed
+        firefly.transactionStatus = body -> body.contains("ΚΑΦΕΣ") ? 422 : 200;
+        assertEquals(1, importFiles(List.of(), first));
+        firefly.transactionStatus = body -> 200;
+
+        assertEquals(0, importFiles(List.of("--resume"), first, second));
+        assertEquals(1, created("ΚΑΦΕΣ"));
+        assertEquals(1, created("ΕΝΟΙΚΙΟ"));
+        assertEquals(1, created("ΜΙΣΘΟΔΟΣΙΑ"));
+    }
+
+    @Test
+    void directoryStandsForTheDataFilesInIt() throws IOException {
+        Path exports = Files.createDirectory(dir.resolve("exports"));
+        FakeFirefly.export(exports.resolve("a.txt"), COFFEE, RENT);
+        FakeFirefly.export(exports.resolve("b.txt"), RENT, SALARY);
+        FakeFirefly.export(exports.resolve(".hidden.txt"), FUEL);
+
+        assertEquals(0, importFiles(List.of(), exports));
+        assertEquals(3, firefly.created().size());
+        assertEquals(0, created("ΠΡΑΤΗΡΙΟ"));
+
+        // The journals written next to the files are not taken for exports the next time
+        assertEquals(0, importFiles(List.of("--resume"), exports));
+        assertEquals(3, firefly.created().size());
+    }
+
+    @Test
+    void globStandsForTheFilesItMatches() throws IOException {
+        FakeFirefly.export(dir.resolve("2024-03.txt"), COFFEE);
+        FakeFirefly.export(dir.resolve("2024-04.txt"), RENT);
+        FakeFirefly.export(dir.resolve("2023-12.txt"), SALARY);
+
+        assertEquals(0, importFiles(List.of(), dir.resolve("2024-*.txt")));
+        assertEquals(2, firefly.created().size());
+        assertEquals(0, created("ΜΙΣΘΟΔΟΣΙΑ"));
+    }
+}
@@ -0,0 +1,320 @@
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retries, the adaptive concurrency limit and the circuit breaker of
+ * {@link RequestScheduler}, against canned responses instead of a server.
+ */
+class RequestSchedulerTest {
+
+    private final Metrics metrics = new Metrics();
+
+    private RequestScheduler scheduler(int maxRetries) {
+        return new RequestScheduler(maxRetries, () -> metrics);
+    }
+
+    private record Response(int statusCode, HttpHeaders headers) implements HttpResponse<String> {
+
+        Response(int statusCode) {
+            this(statusCode, HttpHeaders.of(Map.of(), (name, value) -> true));
+        }
+
+        static Response retryAfter(int statusCode, int seconds) {
+            return new Response(statusCode, HttpHeaders.of(Map.of("Retry-After", List.of(Integer.toString(seconds))),
+                                                           (name, value) -> true));
+        }
+
+        @Override
+        public HttpRequest request() {
+            return HttpRequest.newBuilder(URI.create("http://localhost/")).build();
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public String body() {
+            return "";
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request().uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+
+    /**
+     * Answers with the given responses in turn, the last one over and over.
+     */
+    private static class Script implements RequestScheduler.Attempt<String> {
+
+        private final List<Object> outcomes;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Script(Object... outcomes) {
+            this.outcomes = List.of(outcomes);
+        }
+
+        @Override
+        public HttpResponse<String> send() throws IOException {
+            Object outcome = outcomes.get(Math.min(attempts.getAndIncrement(), outcomes.size() - 1));
+            if (outcome instanceof IOException e) {
+                throw e;
+            }
+            return (Response) outcome;
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // Retries
+
+    @Test
+    void waitsForRetryAfterBeforeRetrying() throws IOException, InterruptedException {
+        Script script = new Script(Response.retryAfter(429, 1), new Response(200));
+        long start = System.nanoTime();
+        HttpResponse<String> response = scheduler(5).send(false, script);
+
+        assertEquals(200, response.statusCode());
+        assertEquals(2, script.attempts.get());
+        assertTrue(millisSince(start) >= 1000, millisSince(start) + " ms");
+        assertEquals(1, metrics.counter("http_throttled"));
+        assertEquals(1, metrics.counter("http_retries"));
+    }
+
+    @Test
+    void retryAfterOnlyDelaysTheThrottledRequest() throws Exception {
+        RequestScheduler scheduler = scheduler(5);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<HttpResponse<String>> throttled = executor.submit(() ->
+                    scheduler.send(false, new Script(Response.retryAfter(429, 2), new Response(200))));
+            Thread.sleep(100);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                assertEquals(200, scheduler.send(false, new Script(new Response(200))).statusCode());
+            }
+            assertTrue(millisSince(start) < 1000, millisSince(start) + " ms");
+            assertEquals(200, throttled.get().statusCode());
+        }
+    }
+
+    @Test
+    void retriesReadsOnServerErrors() throws IOException, InterruptedException {
+        Script script = new Script(new Response(500), new Response(502), new Response(200));
+        assertEquals(200, scheduler(5).send(true, script).statusCode());
+        assertEquals(3, script.attempts.get());
+    }
+
+    @Test
+    void doesNotRetryCreationOnServerErrors() throws IOException, InterruptedException {
+        Script script = new Script(new Response(500), new Response(200));
+        assertEquals(500, scheduler(5).send(false, script).statusCode());
+        assertEquals(1, script.attempts.get());
+    }
+
+    @Test
+    void retriesCreationOnlyIfItWasCertainlyNotProcessed() throws IOException, InterruptedException {
+        Script unavailable = new Script(new Response(503), new Response(200));
+        assertEquals(200, scheduler(5).send(false, unavailable).statusCode());
+        assertEquals(2, unavailable.attempts.get());
+
+        Script refused = new Script(new ConnectException("refused"), new Response(200));
+        assertEquals(200, scheduler(5).send(false, refused).statusCode());
+        assertEquals(2, refused.attempts.get());
+
+        Script timedOut = new Script(new HttpTimeoutException("timed out"), new Response(200));
+        assertThrows(HttpTimeoutException.class, () -> scheduler(5).send(false, timedOut));
+        assertEquals(1, timedOut.attempts.get());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() throws IOException, InterruptedException {
+        Script script = new Script(new Response(422), new Response(200));
+        assertEquals(422, scheduler(5).send(true, script).statusCode());
+        assertEquals(1, script.attempts.get());
+    }
+
+    @Test
+    void returnsTheLastResponseOnceRetriesAreExhausted() throws IOException, InterruptedException {
+        Script script = new Script(new Response(500));
+        assertEquals(500, scheduler(2).send(true, script).statusCode());
+        assertEquals(3, script.attempts.get());
+        assertEquals(2, metrics.counter("http_retries"));
+    }
+
+    @Test
+    void backsOffWithinTheExponentialCeiling() throws IOException, InterruptedException {
+        // Full jitter waits up to 250 ms, 500 ms and 1 s for the three retries
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            scheduler(3).send(true, new Script(new Response(500)));
+            assertTrue(millisSince(start) < 1750 + 500, millisSince(start) + " ms");
+        }
+    }
+
+    // Concurrency limit
+
+    @Test
+    void throttlingHalvesTheLimit() throws IOException, InterruptedException {
+        RequestScheduler scheduler = scheduler(0);
+        assertEquals(4, scheduler.limit());
+        scheduler.send(true, new Script(new Response(429)));
+        assertEquals(2, scheduler.limit());
+        scheduler.send(true, new Script(new Response(503)));
+        assertEquals(1, scheduler.limit());
+        scheduler.send(true, new Script(new Response(429)));
+        assertEquals(1, scheduler.limit());
+    }
+
+    @Test
+    void burstOfThrottledRequestsHalvesTheLimitOnce() throws Exception {
+        RequestScheduler scheduler = scheduler(0);
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch answer = new CountDownLatch(1);
+        RequestScheduler.Attempt<String> throttled = () -> {
+            started.countDown();
+            answer.await();
+            return new Response(429);
+        };
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 4; i++) {
+                executor.submit(() -> scheduler.send(true, throttled));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            answer.countDown();
+        }
+
+        assertEquals(2, scheduler.limit());
+    }
+
+    @Test
+    void slowResponsesShrinkTheLimit() throws IOException, InterruptedException {
+        RequestScheduler scheduler = scheduler(0);
+        for (int i = 0; i < 10; i++) {
+            scheduler.send(true, new Script(new Response(200)));
+        }
+        scheduler.send(true, () -> {
+            Thread.sleep(100);
+            return new Response(200);
+        });
+
+        assertEquals(3, scheduler.limit());
+    }
+
+    @Test
+    void limitGrowsWhileItHoldsRequestsBack() throws Exception {
+        RequestScheduler scheduler = scheduler(0);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        RequestScheduler.Attempt<String> fast = () -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            inFlight.decrementAndGet();
+            return new Response(200);
+        };
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> senders = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                senders.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        scheduler.send(true, fast);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+        }
+
+        assertTrue(scheduler.limit() > 4, "limit " + scheduler.limit());
+        assertTrue(maxInFlight.get() > 4, "max in flight " + maxInFlight.get());
+    }
+
+    // Circuit breaker
+
+    @Test
+    void opensAfterConsecutiveFailuresAndClosesOnASuccessfulProbe() throws Exception {
+        RequestScheduler scheduler = scheduler(0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(500, scheduler.send(true, new Script(new Response(500))).statusCode());
+        }
+        assertEquals(1, metrics.counter("circuit_breaker_opened"));
+
+        // While open, requests wait and then only one probe goes through at a time
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        RequestScheduler.Attempt<String> probe = () -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(200);
+            inFlight.decrementAndGet();
+            return new Response(200);
+        };
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<HttpResponse<String>> first = executor.submit(() -> scheduler.send(true, probe));
+            Future<HttpResponse<String>> second = executor.submit(() -> scheduler.send(true, probe));
+            assertEquals(200, first.get().statusCode());
+            assertEquals(200, second.get().statusCode());
+        }
+        assertTrue(millisSince(start) >= 4500, millisSince(start) + " ms");
+        assertEquals(1, maxInFlight.get());
+
+        // Closed again
+        start = System.nanoTime();
+        scheduler.send(true, new Script(new Response(200)));
+        assertTrue(millisSince(start) < 1000, millisSince(start) + " ms");
+    }
+
+    @Test
+    void successResetsTheFailureCount() throws IOException, InterruptedException {
+        RequestScheduler scheduler = scheduler(0);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                scheduler.send(true, new Script(new Response(500)));
+            }
+            scheduler.send(true, new Script(new Response(200)));
+        }
+
+        assertEquals(0, metrics.counter("circuit_breaker_opened"));
+    }
+}
@@ -0,0 +1,210 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link RowTokenizer} against the split, regular expression, DateTimeFormatter
+ * and Double.parseDouble conversions it replaced.
+ */
+class RowTokenizerTest {
+
+    private final RowTokenizer tokenizer = new RowTokenizer();
+
+    // The conversions before RowTokenizer
+
+    private static String[] referenceFields(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\t");
+    }
+
+    private static String referenceDate(String field) {
+        try {
+            return LocalDate.parse(field, DateTimeFormatter.ofPattern("d/M/uuuu")).toString();
+        } catch (Exception e) {
+            return field;
+        }
+    }
+
+    private static String referenceProductNumber(String field) {
+        return field.replaceAll("\\s*\\(.*?\\)", "").replaceAll("\\s+", "");
+    }
+
+    /**
+     * @return The amount in minor units, or null if it was not a number or not a whole number of cents
+     */
+    private static Long referenceAmount(String field) {
+        String amount = field.split(" ")[0].replace(".", "").replace(",", ".");
+        try {
+            Double.parseDouble(amount);
+            return new BigDecimal(amount).movePointRight(2).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private String field(String value) {
+        assertEquals(1, tokenizer.tokenize(value));
+        return value;
+    }
+
+    /**
+     * Tokenize the amount as the last field of a row, then parse it.
+     */
+    private Long amount(String value) {
+        assertEquals(2, tokenizer.tokenize("x\t" + value));
+        try {
+            return tokenizer.amount(1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Fields
+
+    @Test
+    void splitsLikeTrimAndSplit() {
+        for (String line : List.of("a\tb\tc\td\te", "  a\tb\t\td\te  ", "\ta\tb\t", "a", "a\t\t\t\tb", "\t\t", "   ", "",
+                                   "ΚΑΤΗΓΟΡΙΑ\tΠΕΡΙΓΡΑΦΗ\t1/2/2024\t5001 0012 34567 (Ταμιευτήριο)\t-1.234,56 €\r")) {
+            String[] expected = referenceFields(line);
+            assertEquals(expected.length, tokenizer.tokenize(line), line);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], tokenizer.string(i), line);
+            }
+        }
+    }
+
+    @Test
+    void countsLinesWithTooManyFields() {
+        String line = String.join("\t", Collections.nCopies(20, "x"));
+        assertEquals(17, tokenizer.tokenize(line));
+    }
+
+    @Test
+    void internsEqualFields() {
+        tokenizer.tokenize(new StringBuilder("Αγορές\tx"));
+        String first = tokenizer.internedString(0);
+        tokenizer.tokenize(new StringBuilder("Αγορές\ty"));
+        assertSame(first, tokenizer.internedString(0));
+    }
+
+    // Dates
+
+    @Test
+    void convertsDatesLikeTheFormatter() {
+        for (String date : List.of("1/2/2024", "01/02/2024", "9/12/1999", "31/12/2024", "29/2/2024",
+                                   // Smart resolution clamps the day to the end of the month
+                                   "29/2/2023", "30/2/2024", "31/2/2024", "31/4/2024", "31/6/2024",
+                                   // Not dates, kept as they are
+                                   "32/1/2024", "0/1/2024", "1/0/2024", "1/13/2024", "1/2/24", "1/2/024",
+                                   "2024-01-02", "1-2-2024", "1/2", "1//2024", "/2/2024", "1/2/", "a/b/cdef", "")) {
+            if (date.isEmpty()) {
+                tokenizer.tokenize("x\t\ty");
+                assertEquals(referenceDate(date), tokenizer.isoDate(1));
+                continue;
+            }
+            field(date);
+            assertEquals(referenceDate(date), tokenizer.isoDate(0), date);
+        }
+    }
+
+    @Test
+    void reusesTheLastDateOnlyForTheSameDate() {
+        field("1/2/2024");
+        assertEquals("2024-02-01", tokenizer.isoDate(0));
+        field("2/1/2024");
+        assertEquals("2024-01-02", tokenizer.isoDate(0));
+        field("02/01/2024");
+        assertEquals("2024-01-02", tokenizer.isoDate(0));
+    }
+
+    // Product numbers
+
+    @Test
+    void normalizesProductNumbersLikeTheRegularExpressions() {
+        for (String product : List.of("5001001234567", "5001 0012 34567", "5001 0012 34567 (Ταμιευτήριο)",
+                                      "5001001234567(Savings)", "(Savings) 5001001234567", "4444 XXXX XXXX 1234 (Visa) (Gold)",
+                                      // Unclosed and nested parentheses
+                                      "5001 (Savings", "5001 ((a) b) 2", "5001 ) 2 (",
+                                      // Every character matched by \s, and some that are not
+                                      "50\u000B01\f00\r1", "5001\u00A0001", "5001\u2007001", " 5001 ")) {
+            tokenizer.tokenize("x\t" + product + "\ty");
+            assertEquals(referenceProductNumber(product), tokenizer.productNumber(1), product);
+        }
+    }
+
+    // Amounts
+
+    @Test
+    void parsesAmountsLikeDoubleParseDouble() {
+        for (String amount : List.of("0", "1", "-1", "+1", "12,5", "-12,50", "1.234,56", "-1.234,56 €", "1.234.567,89 EUR",
+                                     ",5", "-,05", "1,", "1.", "1,2.3", "0,00", "1,230", "-7,5000",
+                                     "1 €", "1  €", "€ 1", " 1", "+-1", "--1", "1-", "-", "+", ".", ",", "1,2,3", "1,2€")) {
+            assertEquals(referenceAmount(referenceFields("x\t" + amount)[1]), amount(amount), amount);
+        }
+    }
+
+    @Test
+    void negativeZeroIsZero() {
+        assertEquals(0L, amount("-0,00"));
+    }
+
+    @Test
+    void rejectsAmountsThatAreNotWholeCents() {
+        field("1,234");
+        assertThrows(NumberFormatException.class, () -> tokenizer.amount(0));
+        field("-0,001");
+        assertThrows(NumberFormatException.class, () -> tokenizer.amount(0));
+    }
+
+    @Test
+    void acceptsZerosAfterTheCents() {
+        assertEquals(123L, amount("1,230"));
+        assertEquals(-750L, amount("-7,5000"));
+    }
+
+    @Test
+    void signMustComeFirst() {
+        // Double.parseDouble only saw "-8", as the thousands separators were removed first
+        assertEquals(null, amount(".-8"));
+    }
+
+    @Test
+    void rejectsWhatOnlyDoubleParseDoubleAccepts() {
+        for (String amount : List.of("1e5", "1E5", "12d", "12f", "NaN", "Infinity", "0x1p3")) {
+            assertEquals(null, amount(amount), amount);
+        }
+    }
+
+    @Test
+    void rejectsAmountsBeyondSeventeenDigits() {
+        assertEquals(12345678901234567L, amount("123.456.789.012.345,67"));
+        assertEquals(null, amount("1.234.567.890.123.456,78"));
+    }
+
+    @Test
+    void parsesRandomAmountsLikeDoubleParseDouble() {
+        char[] alphabet = "0123456789.,-+ €".toCharArray();
+        Random random = new Random(42);
+        for (int n = 0; n < 100_000; n++) {
+            char[] chars = new char[1 + random.nextInt(10)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String amount = new String(chars);
+            if (amount.isBlank() || amount.matches("\\.+[-+].*")) {
+                continue;
+            }
+            assertEquals(referenceAmount(referenceFields("x\t" + amount)[1]), amount(amount), () -> Arrays.toString(chars));
+        }
+    }
+}
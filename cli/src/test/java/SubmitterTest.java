@@ -0,0 +1,200 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent submission by {@link Submitter}, and the exit code of an import
+ * depending on what it submitted.
+ */
+class SubmitterTest {
+
+    private static final String PRODUCT = "5001 0012 34567 (Ταμιευτήριο)";
+
+    private final FakeFirefly firefly = new FakeFirefly();
+    private final List<Submitter.Result<String>> reported = new CopyOnWriteArrayList<>();
+    private final List<Submitter.Result<String>> committed = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    SubmitterTest() throws IOException {
+    }
+
+    @AfterEach
+    void stopServer() {
+        firefly.close();
+    }
+
+    private Submitter<String> submitter(int concurrency) {
+        return new Submitter<>(firefly.api(), "/api/v1/transactions", concurrency, committed::add, reported::add);
+    }
+
+    private static void submit(Submitter<String> submitter, String body) throws InterruptedException {
+        submitter.submit(body, body, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answer after the number of milliseconds in the body, e.g. "delay:50".
+     */
+    private static int delayed(String body) {
+        try {
+            Thread.sleep(Long.parseLong(body.substring(body.indexOf(':') + 1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 200;
+    }
+
+    // Ordering and counting
+
+    @Test
+    void reportsResultsInSubmissionOrder() throws InterruptedException {
+        firefly.transactionStatus = SubmitterTest::delayed;
+        try (Submitter<String> submitter = submitter(4)) {
+            for (int delay = 300; delay >= 0; delay -= 100) {
+                submit(submitter, "delay:" + delay);
+            }
+        }
+
+        assertEquals(List.of(0, 1, 2, 3), reported.stream().map(Submitter.Result::index).toList());
+        assertEquals(List.of("delay:300", "delay:200", "delay:100", "delay:0"),
+                     reported.stream().map(Submitter.Result::key).toList());
+        // The server saw them complete the other way round
+        assertEquals("delay:0", firefly.created().get(0));
+    }
+
+    @Test
+    void countsSuccessesAndCollectsFailures() throws InterruptedException {
+        firefly.transactionStatus = body -> body.startsWith("reject") ? 422 : 200;
+        try (Submitter<String> submitter = submitter(2)) {
+            submit(submitter, "ok 1");
+            submit(submitter, "reject 2");
+            submit(submitter, "ok 3");
+            assertEquals(3, submitter.submitted());
+        }
+
+        assertEquals(3, reported.size());
+        assertEquals(List.of("ok 1", "ok 3"), committed.stream().map(Submitter.Result::key).sorted().toList());
+        Submitter.Result<String> failure = reported.get(1);
+        assertEquals(422, failure.status());
+        assertFalse(failure.succeeded());
+    }
+
+    @Test
+    void succeededAndFailuresAddUp() throws InterruptedException {
+        firefly.transactionStatus = body -> body.startsWith("reject") ? 422 : 200;
+        Submitter<String> submitter = submitter(2);
+        try (submitter) {
+            submit(submitter, "ok 1");
+            submit(submitter, "reject 2");
+            submit(submitter, "ok 3");
+            submit(submitter, "reject 4");
+        }
+
+        assertEquals(2, submitter.succeeded());
+        assertEquals(List.of("reject 2", "reject 4"), submitter.failures().stream().map(Submitter.Result::label).toList());
+    }
+
+    @Test
+    void bodyOfASuccessIsTheCreatedId() throws InterruptedException {
+        try (Submitter<String> submitter = submitter(1)) {
+            submit(submitter, "ok 1");
+            submit(submitter, "ok 2");
+        }
+
+        assertEquals(List.of("1", "2"), reported.stream().map(Submitter.Result::body).toList());
+    }
+
+    // Concurrency
+
+    @Test
+    void keepsAtMostConcurrencyRequestsInFlight() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        firefly.transactionStatus = body -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            delayed(body);
+            inFlight.decrementAndGet();
+            return 200;
+        };
+        try (Submitter<String> submitter = submitter(3)) {
+            for (int i = 0; i < 20; i++) {
+                submit(submitter, "delay:20");
+            }
+        }
+
+        assertEquals(20, reported.size());
+        assertTrue(maxInFlight.get() <= 3, "max in flight " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1, "max in flight " + maxInFlight.get());
+    }
+
+    @Test
+    void retriedRequestDoesNotHoldUpTheOnesAfterIt() throws InterruptedException {
+        firefly.retryAfterSeconds = 2;
+        AtomicInteger attempts = new AtomicInteger();
+        firefly.transactionStatus = body -> body.equals("throttled") && attempts.incrementAndGet() == 1 ? 503 : 200;
+        ReusableOptions api = firefly.api();
+        api.maxRetries = 1;
+        try (Submitter<String> submitter = new Submitter<>(api, "/api/v1/transactions", 2, committed::add, reported::add)) {
+            submit(submitter, "throttled");
+            for (int i = 0; i < 20; i++) {
+                submit(submitter, "fast " + i);
+            }
+            // All of them go through the other slot while the first waits, but none can be reported before it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (committed.size() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(20, committed.size());
+            assertEquals(0, reported.size());
+        }
+
+        assertEquals(21, reported.size());
+        assertEquals("throttled", reported.get(0).key());
+        assertTrue(reported.get(0).succeeded());
+    }
+
+    // Exit codes of an import
+
+    private int importRows(String[]... rows) throws IOException {
+        firefly.addAccount("Savings", "5001001234567", null, null);
+        Path file = FakeFirefly.export(dir.resolve("export.txt"), rows);
+        return new CommandLine(new PiraeusImporter()).execute(
+                "--url", firefly.url(), "--token", "test", "--cache-dir", dir.resolve("cache").toString(),
+                "--max-retries", "0", "--concurrency", "4", file.toString());
+    }
+
+    @Test
+    void importSucceedsWhenEveryTransactionIsCreated() throws IOException {
+        int exitCode = importRows(FakeFirefly.row("Αγορές", "ΑΓΟΡΑ 1", "1/3/2024", PRODUCT, "-12,50 €"),
+                                  FakeFirefly.row("Αγορές", "ΑΓΟΡΑ 2", "2/3/2024", PRODUCT, "-7,00 €"));
+
+        assertEquals(0, exitCode);
+        assertEquals(2, firefly.created().size());
+    }
+
+    @Test
+    void importFailsWhenATransactionIsRejected() throws IOException {
+        firefly.transactionStatus = body -> body.contains("ΑΓΟΡΑ 1") ? 422 : 200;
+        int exitCode = importRows(FakeFirefly.row("Αγορές", "ΑΓΟΡΑ 1", "1/3/2024", PRODUCT, "-12,50 €"),
+                                  FakeFirefly.row("Αγορές", "ΑΓΟΡΑ 2", "2/3/2024", PRODUCT, "-7,00 €"));
+
+        assertEquals(1, exitCode);
+        // The failure does not stop the rest of the import
+        assertEquals(1, firefly.created().size());
+        assertTrue(firefly.created().get(0).contains("ΑΓΟΡΑ 2"));
+    }
+}
@@ -0,0 +1,292 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pairing of transfer legs by {@link PiraeusImporter.TransactionBuilder}.
+ */
+class TransactionBuilderTest {
+
+    private static final String REDISTRIBUTION = "Ανακατανομή";
+    private static final String BUSINESS = "Επαγγελματικά";
+    private static final String SHOPPING = "Αγορές";
+    private static final String PAYMENT = "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ (ΠΛΗΡΩΜΗ - ΕΥΧΑΡΙΣΤΟΥΜΕ)";
+
+    private final PiraeusImporter importer = new PiraeusImporter();
+    private final List<PiraeusImporter.Transaction> transactions = new ArrayList<>();
+
+    private PiraeusImporter.TransactionBuilder builder(int window) {
+        return importer.new TransactionBuilder(window, transactions::add);
+    }
+
+    private static PiraeusImporter.Row row(String category, String description, String date, long amount, String accountId) {
+        return new PiraeusImporter.Row("", category, description, date, "product-" + accountId, amount, accountId);
+    }
+
+    private static PiraeusImporter.Row row(String category, String date, long amount, String accountId) {
+        return row(category, category + " " + amount, date, amount, accountId);
+    }
+
+    private List<PiraeusImporter.Transaction> build(int window, PiraeusImporter.Row... rows) throws InterruptedException {
+        PiraeusImporter.TransactionBuilder builder = builder(window);
+        for (PiraeusImporter.Row row : rows) {
+            builder.add(row);
+        }
+        builder.finish();
+        assertEquals(transactions.size(), builder.transactionCount);
+        return transactions;
+    }
+
+    private static void assertTransaction(PiraeusImporter.Transaction t, String type, String date, long amount,
+                                          String description, String sourceID, String destinationID, String category) {
+        assertEquals(type, t.type);
+        assertEquals(date, t.date);
+        assertEquals(amount, t.amount);
+        assertEquals(description, t.description);
+        assertEquals(sourceID, t.sourceID);
+        assertEquals(destinationID, t.destinationID);
+        assertEquals(category, t.category);
+    }
+
+    // Adjacent legs, as the one-row lookahead before the pairing window handled them
+
+    @Test
+    void adjacentRedistributionsBecomeATransfer() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(1, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 10000, "out", "2", "1", REDISTRIBUTION);
+    }
+
+    @Test
+    void redistributionFollowedByBusinessRowBecomesATransfer() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "in", "2024-03-01", 2550, "1"),
+                row(BUSINESS, "out", "2024-03-01", -2550, "2"));
+
+        assertEquals(1, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 2550, "out", "2", "1", REDISTRIBUTION);
+    }
+
+    @Test
+    void cardPaymentPairsWithThePrecedingRow() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(SHOPPING, "debit", "2024-03-05", -30000, "bank"),
+                row(SHOPPING, PAYMENT, "2024-03-05", 30000, "card"));
+
+        assertEquals(1, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-05", 30000, PAYMENT, "bank", "card", REDISTRIBUTION);
+    }
+
+    @Test
+    void unpairedRowsBecomeWithdrawalsAndDeposits() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(SHOPPING, "groceries", "2024-03-01", -1234, "1"),
+                row(SHOPPING, "refund", "2024-03-02", 500, "1"));
+
+        assertEquals(2, result.size());
+        assertTransaction(result.get(0), "withdrawal", "2024-03-01", 1234, "groceries", "1", null, SHOPPING);
+        assertTransaction(result.get(1), "deposit", "2024-03-02", 500, "refund", null, "1", SHOPPING);
+    }
+
+    @Test
+    void unmatchedRedistributionIsImportedOnItsOwn() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(SHOPPING, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(2, result.size());
+        assertTransaction(result.get(0), "deposit", "2024-03-01", 10000, "in", null, "1", REDISTRIBUTION);
+        assertTransaction(result.get(1), "withdrawal", "2024-03-01", 10000, "out", "2", null, SHOPPING);
+    }
+
+    // Legs apart or out of order
+
+    @Test
+    void legsNeedNotBeAdjacent() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(SHOPPING, "groceries", "2024-03-01", -1234, "3"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(2, result.size());
+        // The transfer takes the place of its earlier leg
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 10000, "out", "2", "1", REDISTRIBUTION);
+        assertTransaction(result.get(1), "withdrawal", "2024-03-01", 1234, "groceries", "3", null, SHOPPING);
+    }
+
+    @Test
+    void negativeLegMayComeFirst() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(BUSINESS, "out", "2024-03-01", -10000, "2"),
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"));
+
+        assertEquals(1, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 10000, "in", "2", "1", REDISTRIBUTION);
+    }
+
+    @Test
+    void cardPaymentKeepsItsDescriptionWhenItComesFirst() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(SHOPPING, PAYMENT, "2024-03-05", 30000, "card"),
+                row(SHOPPING, "debit", "2024-03-05", -30000, "bank"));
+
+        assertEquals(1, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-05", 30000, PAYMENT, "bank", "card", REDISTRIBUTION);
+    }
+
+    // Rows that are not legs of the same transfer
+
+    @Test
+    void legsMustHaveOppositeSigns() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "2024-03-01", 10000, "2"));
+
+        assertEquals(List.of("deposit", "deposit"), result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void legsMustBeInDifferentAccounts() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "2024-03-01", -10000, "1"));
+
+        assertEquals(List.of("deposit", "withdrawal"), result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void legsMustHaveTheSameDateAndAmount() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "2024-03-02", -10000, "2"),
+                row(REDISTRIBUTION, "2024-03-02", 9999, "3"));
+
+        assertEquals(List.of("deposit", "withdrawal", "deposit"), result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void businessAndOtherRowsOnlyPairWithAMarker() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(BUSINESS, "2024-03-01", 10000, "1"),
+                row(BUSINESS, "2024-03-01", -10000, "2"),
+                row(SHOPPING, "2024-03-01", 500, "1"),
+                row(SHOPPING, "2024-03-01", -500, "2"),
+                row(REDISTRIBUTION, "2024-03-01", 700, "1"),
+                row(SHOPPING, "2024-03-01", -700, "2"));
+
+        assertEquals(List.of("deposit", "withdrawal", "deposit", "withdrawal", "deposit", "withdrawal"),
+                     result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void cardPaymentsDoNotPairWithEachOther() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(SHOPPING, PAYMENT, "2024-03-05", 30000, "card1"),
+                row(SHOPPING, PAYMENT, "2024-03-05", -30000, "card2"));
+
+        assertEquals(List.of("deposit", "withdrawal"), result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void zeroAmountsDoNotPair() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "2024-03-01", 0, "1"),
+                row(REDISTRIBUTION, "2024-03-01", 0, "2"));
+
+        assertEquals(List.of("deposit", "deposit"), result.stream().map(t -> t.type).toList());
+    }
+
+    // Several candidates
+
+    @Test
+    void markerWinsOverNearerBusinessRow() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "marker", "2024-03-01", 10000, "1"),
+                row(BUSINESS, "business", "2024-03-01", 10000, "3"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(2, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 10000, "out", "2", "1", REDISTRIBUTION);
+        assertTransaction(result.get(1), "deposit", "2024-03-01", 10000, "business", null, "3", BUSINESS);
+    }
+
+    @Test
+    void nearestCandidateWins() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "far", "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "near", "2024-03-01", 10000, "3"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(2, result.size());
+        assertTransaction(result.get(0), "deposit", "2024-03-01", 10000, "far", null, "1", REDISTRIBUTION);
+        assertTransaction(result.get(1), "transfer", "2024-03-01", 10000, "out", "2", "3", REDISTRIBUTION);
+    }
+
+    @Test
+    void pairedRowIsNotACandidateAgain() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(64,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"),
+                row(REDISTRIBUTION, "out again", "2024-03-01", -10000, "3"));
+
+        assertEquals(2, result.size());
+        assertTransaction(result.get(0), "transfer", "2024-03-01", 10000, "out", "2", "1", REDISTRIBUTION);
+        assertTransaction(result.get(1), "withdrawal", "2024-03-01", 10000, "out again", "3", null, REDISTRIBUTION);
+    }
+
+    // The pairing window
+
+    @Test
+    void legsWithinTheWindowPair() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(2,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(SHOPPING, "groceries", "2024-03-01", -1234, "3"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(List.of("transfer", "withdrawal"), result.stream().map(t -> t.type).toList());
+    }
+
+    @Test
+    void legsFurtherApartThanTheWindowExpire() throws InterruptedException {
+        List<PiraeusImporter.Transaction> result = build(2,
+                row(REDISTRIBUTION, "in", "2024-03-01", 10000, "1"),
+                row(SHOPPING, "groceries", "2024-03-01", -1234, "3"),
+                row(SHOPPING, "bakery", "2024-03-01", -250, "3"),
+                row(REDISTRIBUTION, "out", "2024-03-01", -10000, "2"));
+
+        assertEquals(4, result.size());
+        assertTransaction(result.get(0), "deposit", "2024-03-01", 10000, "in", null, "1", REDISTRIBUTION);
+        assertTransaction(result.get(3), "withdrawal", "2024-03-01", 10000, "out", "2", null, REDISTRIBUTION);
+    }
+
+    @Test
+    void transactionsAreHandedOverOnceOutOfTheWindow() throws InterruptedException {
+        PiraeusImporter.TransactionBuilder builder = builder(2);
+        builder.add(row(SHOPPING, "2024-03-01", -100, "1"));
+        builder.add(row(SHOPPING, "2024-03-01", -200, "1"));
+        assertEquals(0, transactions.size());
+        builder.add(row(SHOPPING, "2024-03-01", -300, "1"));
+        assertEquals(1, transactions.size());
+        builder.finish();
+
+        assertEquals(List.of(100L, 200L, 300L), transactions.stream().map(t -> t.amount).toList());
+        assertEquals(3, builder.dataCount);
+    }
+
+    @Test
+    void rowsWithoutAccountAreSkipped() throws InterruptedException {
+        PiraeusImporter.TransactionBuilder builder = builder(64);
+        builder.add(row(SHOPPING, "2024-03-01", -100, null));
+        builder.add(row(SHOPPING, "2024-03-01", -200, "1"));
+        builder.finish();
+
+        assertEquals(1, transactions.size());
+        assertEquals(1, builder.dataCount);
+    }
+}
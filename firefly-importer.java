@@ -1,26 +1,120 @@
 ///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
 //DEPS info.picocli:picocli:4.7.7
 //DEPS org.eclipse:yasson:3.0.4
 //DEPS org.glassfish:jakarta.json:2.0.1
+//CDS
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Model.OptionSpec;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParserFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ConnectException;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @Command()
 class ReusableOptions
@@ -34,13 +128,90 @@ class ReusableOptions
             required = true,
             description = "Firefly III API token (Personal Access Token)")
     String apiToken;
+
+    @Option(names = {"--connect-timeout"},
+            defaultValue = "10",
+            description = "Connection timeout in seconds (default: ${DEFAULT-VALUE})")
+    int connectTimeout;
+
+    @Option(names = {"--request-timeout"},
+            defaultValue = "60",
+            description = "Per-request timeout in seconds (default: ${DEFAULT-VALUE})")
+    int requestTimeout;
+
+    @Option(names = {"--max-retries"},
+            defaultValue = "5",
+            description = "Retries of a failed request, if it is safe to retry (default: ${DEFAULT-VALUE})")
+    int maxRetries;
+
+    // One client per command run, so that all requests share its connection pool
+    private HttpClient httpClient;
+
+    // Likewise one scheduler, so that all requests share its limits
+    private RequestScheduler scheduler;
+
+    // Guards the lazy creation of both, as the first requests may be sent by several threads at once
+    private final ReentrantLock clientLock = new ReentrantLock();
+
+    Metrics metrics = new Metrics();
+
+    HttpClient httpClient() {
+        clientLock.lock();
+        try {
+            if (httpClient == null) {
+                httpClient = Utils.newHttpClient(Duration.ofSeconds(connectTimeout));
+            }
+            return httpClient;
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    RequestScheduler scheduler() {
+        clientLock.lock();
+        try {
+            if (scheduler == null) {
+                scheduler = new RequestScheduler(maxRetries, () -> metrics);
+            }
+            return scheduler;
+        } finally {
+            clientLock.unlock();
+        }
+    }
+
+    HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return scheduler().send(true, () ->
+                timed(path, () -> Utils.get(httpClient(), fireflyUrl, path, apiToken, Duration.ofSeconds(requestTimeout))));
+    }
+
+    HttpResponse<InputStream> getStream(String path) throws IOException, InterruptedException {
+        return scheduler().send(true, () ->
+                timed(path, () -> Utils.getStream(httpClient(), fireflyUrl, path, apiToken, Duration.ofSeconds(requestTimeout))));
+    }
+
+    HttpResponse<String> post(String path, byte[] jsonBody) throws IOException, InterruptedException {
+        return scheduler().send(false, () ->
+                timed(path, () -> Utils.post(httpClient(), fireflyUrl, path, apiToken, Duration.ofSeconds(requestTimeout), jsonBody)));
+    }
+
+    private <T> HttpResponse<T> timed(String path, RequestScheduler.Attempt<T> request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int status = -1;
+        try {
+            HttpResponse<T> response = request.send();
+            status = response.statusCode();
+            return response;
+        } finally {
+            metrics.recordRequest(path, status, System.nanoTime() - start);
+        }
+    }
 }
 
 @Command(name = "firefly-importer.java",
          mixinStandardHelpOptions = true, 
          version = "firefly-importer 0.1.0",
          description = "CLI tool for importing data into Firefly III",
-         subcommands = {PiraeusImporter.class, TestAuth.class})
+         subcommands = {PiraeusImporter.class, Watch.class, Replay.class, TestAuth.class, Bench.class})
 class FireflyImporter implements Callable<Integer> {
 
     @Override
@@ -58,441 +229,4301 @@ class FireflyImporter implements Callable<Integer> {
 }
 
 class Utils {
-    static HttpResponse<String> get(String baseUrl, String path, String token) throws IOException, InterruptedException {
-        HttpClient client = HttpClient.newHttpClient();
+    // Longest Retry-After honoured, so that a misconfigured server cannot stall an import
+    static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
 
-        // Ensure URL doesn't end with slash
-        String url = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
-        url += path.startsWith("/") ? path : "/" + path;
+    /**
+     * Body handler for requests creating an object. Successful responses are not
+     * decoded into a String; their body is the {@code data.id} of the created
+     * object (null if absent). Failed responses have the error response as body.
+     */
+    static final HttpResponse.BodyHandler<String> CREATED_ID_OR_ERROR_BODY = info ->
+            info.statusCode() / 100 == 2
+                    ? HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), Utils::createdId)
+                    : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+    /**
+     * Create a long-lived client. The client keeps connections alive and reuses
+     * them across requests, and negotiates HTTP/2 when the server supports it
+     * (falling back to HTTP/1.1 otherwise). Redirects are not followed: the
+     * client would turn a redirected POST into a GET and send the API token
+     * to the redirect target.
+     */
+    static HttpClient newHttpClient(Duration connectTimeout) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    /**
+     * Describe a redirect response, which is reported as a failure.
+     */
+    static IOException redirected(HttpResponse<?> response) {
+        String location = response.headers().firstValue("Location").orElse(null);
+        return new IOException("HTTP Status " + response.statusCode() + ", Firefly III redirected the request"
+                + (location != null ? " to " + location : "") + ". Use the final address as --url");
+    }
+
+    static HttpResponse<String> get(HttpClient client, String baseUrl, String path, String token, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = newRequest(baseUrl, path, token, timeout)
                 .GET()
                 .build();
 
         return client.send(request, HttpResponse.BodyHandlers.ofString());
     }
 
-    static HttpResponse<String> post(String baseUrl, String path, String token, String jsonBody) throws IOException, InterruptedException {
-        HttpClient client = HttpClient.newHttpClient();
+    /**
+     * GET a resource, handing its body over as a stream so that large responses
+     * can be parsed without being buffered. The caller must close the body.
+     */
+    static HttpResponse<InputStream> getStream(HttpClient client, String baseUrl, String path, String token, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = newRequest(baseUrl, path, token, timeout)
+                .GET()
+                .build();
 
-        // Ensure URL doesn't end with slash
-        String url = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
-        url += path.startsWith("/") ? path : "/" + path;
+        return client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + token)
-                .header("Accept", "application/json")
+    static HttpResponse<String> post(HttpClient client, String baseUrl, String path, String token, Duration timeout, byte[] jsonBody) throws IOException, InterruptedException {
+        HttpRequest request = newRequest(baseUrl, path, token, timeout)
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(jsonBody))
                 .build();
 
-        return client.send(request, HttpResponse.BodyHandlers.ofString());
+        return client.send(request, CREATED_ID_OR_ERROR_BODY);
     }
-}
-
-@Command(name = "test-auth", description = "Test authentication with Firefly III API")
-class TestAuth extends ReusableOptions implements Callable<Integer> {
 
-    @Override
-    public Integer call() {
-        System.out.println("Testing authentication with Firefly III instance at: " + fireflyUrl);
-        
-        try {
-            if (authenticate()) {
-                System.out.println("✓ Authentication successful!");
-                return 0;
-            } else {
-                System.err.println("✗ Authentication failed!");
-                return 1;
+    /**
+     * Extract {@code data.id} from a Firefly III response without binding the
+     * whole document.
+     */
+    static String createdId(byte[] body) {
+        try (JsonParser parser = JsonSupport.PARSERS.createParser(new ByteArrayInputStream(body))) {
+            int depth = 0;
+            String topLevelKey = null;
+            while (parser.hasNext()) {
+                switch (parser.next()) {
+                    case START_OBJECT, START_ARRAY -> depth++;
+                    case END_OBJECT, END_ARRAY -> depth--;
+                    case KEY_NAME -> {
+                        if (depth == 1) {
+                            topLevelKey = parser.getString();
+                        } else if (depth == 2 && "data".equals(topLevelKey) && "id".equals(parser.getString())) {
+                            JsonParser.Event value = parser.next();
+                            return value == JsonParser.Event.VALUE_STRING || value == JsonParser.Event.VALUE_NUMBER
+                                    ? parser.getString() : null;
+                        }
+                    }
+                    default -> { }
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Error during authentication: " + e.getMessage());
-            e.printStackTrace();
-            return 1;
+        } catch (JsonException e) {
+            // Not the expected document, the ID is unknown
         }
+        return null;
     }
 
-    private boolean authenticate() throws IOException, InterruptedException {
-        HttpResponse<String> response = Utils.get(fireflyUrl, "/api/v1/about", apiToken);
-        int status = response.statusCode();
-        String responseBody = response.body();
+    /**
+     * Format an amount in minor units (cents) the way the Firefly III API
+     * expects it, e.g. {@code -123456} becomes {@code "-1234.56"}.
+     */
+    static String formatMinorUnits(long amount) {
+        long abs = Math.abs(amount);
+        long cents = abs % 100;
+        return (amount < 0 ? "-" : "") + abs / 100 + (cents < 10 ? ".0" : ".") + cents;
+    }
 
-        if (status == 200 && responseBody != null && !responseBody.isEmpty()) {
-            Jsonb jsonb = JsonbBuilder.create();
+    /**
+     * The wait a response asks for in its Retry-After header, given either in
+     * seconds or as an HTTP date, capped at {@link #MAX_RETRY_AFTER}.
+     *
+     * @return The wait, or null if the response has no valid Retry-After
+     */
+    static Duration retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return null;
+        }
+        Duration wait;
+        try {
+            wait = Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
             try {
-                AboutResponse about = jsonb.fromJson(responseBody, AboutResponse.class);
-                if (about != null && about.data != null) {
-                    AboutData data = about.data;
-                    System.out.println("\nFirefly III Instance Information:");
-                    if (data.version != null) System.out.println("  Version: " + data.version);
-                    if (data.api_version != null) System.out.println("  API Version: " + data.api_version);
-                    if (data.php_version != null) System.out.println("  PHP Version: " + data.php_version);
-                    if (data.os != null) System.out.println("  OS: " + data.os);
-                }
-                return true;
-            } catch (Exception e) {
-                System.err.println("Failed to parse JSON response: " + e.getMessage());
-                return false;
-            }
-        } else {
-            System.err.println("HTTP Error: " + status);
-            if (responseBody != null && !responseBody.isEmpty()) {
-                System.err.println("Response: " + responseBody);
+                wait = Duration.between(Instant.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException e2) {
+                return null;
             }
-            return false;
         }
+        if (wait.isNegative()) {
+            return Duration.ZERO;
+        }
+        return wait.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : wait;
     }
 
-    // JSON-B mapping classes for the /api/v1/about response
-    public static class AboutResponse {
-        public AboutData data;
-    }
+    private static HttpRequest.Builder newRequest(String baseUrl, String path, String token, Duration timeout) {
+        // Ensure URL doesn't end with slash
+        String url = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        url += path.startsWith("/") ? path : "/" + path;
 
-    public static class AboutData {
-        public String version;
-        public String api_version;
-        public String php_version;
-        public String os;
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/json");
     }
 }
 
-@Command(name = "import-piraeus-data", description = "Import piraeus unified data into Firefly III (Not yet implemented)")
-class PiraeusImporter extends ReusableOptions implements Callable<Integer> {
+/**
+ * Sends the API requests of a command, retrying the failures that are safe to
+ * retry and adapting the number of requests in flight to what the server can
+ * take.
+ *
+ * Retries: GET requests are retried on I/O errors, 429 and 5xx responses.
+ * POST requests are not idempotent, so they are only retried when the server
+ * certainly did not process them: on 429 and 503 responses and on failures to
+ * connect. A retry waits for the Retry-After of the response if there is one,
+ * otherwise for an exponential backoff with full jitter. Only the retried
+ * request waits; the others are held back by the limit, which the throttling
+ * response halved.
+ *
+ * Concurrency: requests in flight are limited by an AIMD limit. The limit
+ * grows by one for every limit's worth of fast successful requests, and is
+ * halved on throttling (429, 502, 503, 504, timeouts) or cut by a tenth when
+ * latency rises well above the best recently observed. Requests started
+ * before a decrease do not decrease the limit again, so that a burst of
+ * throttled requests halves it only once.
+ *
+ * Circuit breaker: after {@value #FAILURES_TO_OPEN} consecutive failures the
+ * breaker opens and requests wait, until a single probe request succeeds. The
+ * wait doubles after every failed probe; if the server stays down for longer
+ * than {@link #GIVE_UP}, requests fail instead.
+ */
+class RequestScheduler {
 
-    private static final int PIRAEUS_HEADER_COLUMNS = 5;
+    private static final int INITIAL_LIMIT = 4;
+    private static final int MAX_LIMIT = 256;
+    private static final Duration BASE_BACKOFF = Duration.ofMillis(250);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+    // Latency above TOLERANCE times the baseline plus SLACK counts as congestion
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final Duration LATENCY_SLACK = Duration.ofMillis(20);
+    // The baseline is the lowest latency of the last window of requests
+    private static final int BASELINE_WINDOW = 200;
+    private static final int FAILURES_TO_OPEN = 5;
+    private static final Duration INITIAL_OPEN = Duration.ofSeconds(5);
+    private static final Duration MAX_OPEN = Duration.ofMinutes(1);
+    private static final Duration GIVE_UP = Duration.ofMinutes(5);
 
-    private static final String DEFAULT_ACCOUNT = "(no name)";
+    interface Attempt<T> {
+        HttpResponse<T> send() throws IOException, InterruptedException;
+    }
 
-    // Cache productNumber -> accountId (null means not found)
-    private final Map<String, String> accountCache = new HashMap<>();
+    private final int maxRetries;
+    // Supplied on use, as a long-running command may start fresh metrics for every import
+    private final Supplier<Metrics> metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
 
-    @Parameters(paramLabel = "<data-file>", description = "Path to the data file to import")
-    String dataFile;
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private long lastDecrease;
+    private long baseline = Long.MAX_VALUE;
+    private long windowMin = Long.MAX_VALUE;
+    private int windowSamples;
 
-    @Option(names = {"--dry-run"}, description = "Parse the file but do not import into Firefly III")
-    boolean dryRun = false;
+    private int consecutiveFailures;
+    private boolean open;
+    private boolean probing;
+    private long openSince;
+    private long openUntil;
+    private Duration openFor = INITIAL_OPEN;
+
+    RequestScheduler(int maxRetries, Supplier<Metrics> metrics) {
+        this.maxRetries = maxRetries;
+        this.metrics = metrics;
+        lastDecrease = System.nanoTime();
+    }
 
     /**
-     * Import data into Firefly III from a tab separated values file generated
-     * through Piraeus e-banking (unified transactions view).
+     * Send a request, retrying it as described above.
      *
-     * The file is expected to have some info in the first lines. Then a header
-     * line followed by data lines. And finally an ending line with some
-     * additional info.
-     * 
-     * The expected header columns (in Greek) are:
-     * Κατηγορία	Περιγραφή Συναλλαγής (είδος)	Ημερομηνία Καταχώρησης	Αριθμός Προϊόντος	Ποσό	
-     * 
-     * @return Exit code
+     * @param idempotent Whether the request may be repeated after the server
+     *                   could have processed it
+     * @return The last response, which may still be a failure once retries are
+     *         exhausted or if the failure is not retryable
      */
-    @Override
-    public Integer call() {
-        System.out.println("Importing data from: " + dataFile);
-                
-        try {
-            java.nio.file.Path filePath = java.nio.file.Path.of(dataFile);
-            if (!java.nio.file.Files.exists(filePath)) {
-                System.err.println("✗ File not found: " + dataFile);
-                return 1;
-            }
-            
-            java.util.List<String> lines = java.nio.file.Files.readAllLines(filePath);
-            if (lines.isEmpty()) {
-                System.err.println("✗ File is empty");
-                return 1;
-            }
-            
-            // Skip initial info lines until we find the header
-            int headerIndex = -1;
-            for (int i = 0; i < lines.size(); i++) {
-                if (lines.get(i).contains("Κατηγορία") && lines.get(i).contains("Περιγραφή Συναλλαγής")) {
-                    headerIndex = i;
-                    break;
+    <T> HttpResponse<T> send(boolean idempotent, Attempt<T> attempt) throws IOException, InterruptedException {
+        for (int retry = 0; ; retry++) {
+            boolean probe = acquire();
+            long start = System.nanoTime();
+            HttpResponse<T> response;
+            try {
+                response = attempt.send();
+            } catch (IOException e) {
+                // Timeouts are a sign of overload, refused connections of a server that is down
+                release(probe, start, e instanceof HttpTimeoutException, true);
+                boolean notSent = e instanceof ConnectException || e instanceof HttpConnectTimeoutException;
+                if (!(idempotent || notSent) || retry >= maxRetries) {
+                    throw e;
                 }
+                metrics.get().increment("http_retries");
+                Thread.sleep(backoff(retry));
+                continue;
+            } catch (Throwable e) {
+                // Interrupted, or a bad request such as a malformed URL: free the slot, and the probe if it was one
+                release(probe, start, false, true);
+                throw e;
             }
-            
-            if (headerIndex == -1) {
-                System.err.println("✗ Could not find expected header line");
-                return 1;
+            int status = response.statusCode();
+            boolean throttled = status == 429 || status == 502 || status == 503 || status == 504;
+            release(probe, start, throttled, status >= 500);
+            if (throttled) {
+                metrics.get().increment("http_throttled");
             }
-            
-            String headerLine = lines.get(headerIndex);
-            String[] headers = headerLine.split("\t");
-            if (headers.length != PIRAEUS_HEADER_COLUMNS) {
-                System.err.println("✗ Header line does not contain expected number of columns");
-                System.err.println("✗ Found " + headers.length + " columns, expected " + PIRAEUS_HEADER_COLUMNS);
-                return 1;
+            boolean retryable = status == 429 || status == 503 || (idempotent && status >= 500);
+            if (!retryable || retry >= maxRetries) {
+                return response;
             }
-            System.out.println("Found header with " + headers.length + " columns");
-            
-            // Process data lines (skip header and info lines)
-            int dataCount = 0;
-            String lastProductNumber = null;
-            List<Transaction> transactions = new ArrayList<>(lines.size() - headerIndex - 1);
-            for (int i = headerIndex + 1; i < lines.size(); i++) {
-                String line = lines.get(i).trim();
-                if (line.isEmpty()) continue;
-                
-                String[] fields = line.split("\t");
-                if (fields.length != PIRAEUS_HEADER_COLUMNS) {
-                    // Likely the ending info line
-                    break;
-                }
-
-                String category = fields[0];
-                String description = fields[1];
-                String postingDate = fields[2];
-                try {
-                    java.time.LocalDate d = java.time.LocalDate.parse(
-                        postingDate, java.time.format.DateTimeFormatter.ofPattern("d/M/uuuu"));
-                    postingDate = d.toString(); // ISO 8601 (yyyy-MM-dd)
-                } catch (Exception e) {
-                    // Fallback: keep original if parsing fails
-                }
-                // Drop the friendly name inside the parentheses and remove all spaces from the product number
-                String productNumber = fields[3].replaceAll("\\s*\\(.*?\\)", "").replaceAll("\\s+", "");
-                String amount = fields[4].split(" ")[0].replace(".", "").replace(",", "."); // Remove currency if present, remove dots and replace comma with dot
-
-                // Use productNumber to find the corresponding account in Firefly III
-                try {
-                    String accountId = findAccountIdForProduct(productNumber);
-                    if (accountId == null) {
-                        System.out.println("No account found for product " + productNumber);
-                        // TODO handle case where no account is found
-                        continue;
-                    }
+            discard(response);
+            metrics.get().increment("http_retries");
+            Duration retryAfter = Utils.retryAfter(response);
+            Thread.sleep(retryAfter != null ? retryAfter : backoff(retry));
+        }
+    }
 
-                    dataCount++;
+    /**
+     * @return The current limit of requests in flight
+     */
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                    if (description.contains("(ΠΛΗΡΩΜΗ - ΕΥΧΑΡΙΣΤΟΥΜΕ)")) {
-                        // handle as transfer
-                        String sourceID;
-                        if (lastProductNumber == null) {
-                            Transaction last = transactions.removeLast();
-                            sourceID = last.sourceID;
-                        } else {
-                            sourceID = findAccountIdForProduct(lastProductNumber);
-                        }
-                        transactions.add(new Transaction(
-                            "transfer",
-                            postingDate,
-                            amount,
-                            description,
-                            sourceID,
-                            accountId,
-                            "Ανακατανομή"
-                        ));
-                        lastProductNumber = null;
-                        continue;
-                    } else if ("Ανακατανομή".equals(category)) {
-                        if (lastProductNumber == null) {
-                            lastProductNumber = productNumber;
-                            continue;
-                        }
-                        // Merge the two transactions in a transfer
-                        transactions.add(new Transaction(
-                            "transfer",
-                            postingDate,
-                            amount.substring(1), // remove negative sign
-                            description,
-                            accountId,
-                            findAccountIdForProduct(lastProductNumber),
-                            "Ανακατανομή"
-                        ));
-                        lastProductNumber = null;
-                        continue;
+    /**
+     * Wait for a free slot.
+     *
+     * @return Whether the request is the probe of an open circuit breaker
+     */
+    private boolean acquire() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (open) {
+                    long downFor = now - openSince;
+                    if (downFor > GIVE_UP.toNanos()) {
+                        throw new IOException("Firefly III has been unavailable for " + Duration.ofNanos(downFor).toSeconds()
+                                + " seconds, giving up");
                     }
-                    if (lastProductNumber != null) {
-                        if ("Επαγγελματικά".equals(category)) {
-                            // Merge the two transactions in a transfer
-                            transactions.add(new Transaction(
-                                "transfer",
-                                postingDate,
-                                amount.substring(1), // remove negative sign
-                                description,
-                                accountId,
-                                findAccountIdForProduct(lastProductNumber),
-                                "Ανακατανομή"
-                            ));
-                            lastProductNumber = null;
-                            continue;
-                        }
-                        System.out.println("Warning: Unmatched redistribution entry:");
-                        System.out.println("Last  " + lastProductNumber);
-                        System.out.println("Current  " + fields[0] + " " + fields[1] + " " + fields[3] + " " + fields[4]);
-                        lastProductNumber = null;
-                        // fall through to normal transaction handling for current transaction
+                    if (!probing && now - openUntil >= 0) {
+                        probing = true;
+                        inFlight++;
+                        return true;
                     }
-                    // Handle normal transaction entry
-                    double amountNumber = Double.parseDouble(amount);
-                    transactions.add(new Transaction(
-                        amountNumber < 0 ? "withdrawal" : "deposit",
-                        postingDate,
-                        amountNumber < 0 ? amount.substring(1) : amount,
-                        description,
-                        amountNumber < 0 ? accountId : null,
-                        amountNumber < 0 ? null : accountId,
-                        category
-                    ));
-                } catch (Exception e) {
-                    System.err.println("Error looking up account for product " + productNumber + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-            
-            System.out.println("\n✓ Successfully parsed " + dataCount + " data rows");
-            System.out.println("✓ Prepared " + transactions.size() + " transactions for import");
-            // Commit transactions to Firefly III, one at a time
-            for (Transaction t : transactions) {
-                Jsonb jsonb = JsonbBuilder.create();
-                Map<String, Object> txMap = new HashMap<>();
-                txMap.put("type", t.type);
-                txMap.put("date", t.date);
-                txMap.put("amount", t.amount);
-                txMap.put("description", t.description);
-                txMap.put("category_name", t.category);
-                if (t.sourceID == null) {
-                    txMap.put("source_name", DEFAULT_ACCOUNT);
+                    changed.awaitNanos(probing ? GIVE_UP.toNanos() - downFor : Math.min(openUntil - now, GIVE_UP.toNanos() - downFor));
+                } else if (inFlight < (int) limit) {
+                    inFlight++;
+                    return false;
                 } else {
-                    txMap.put("source_id", t.sourceID);
+                    changed.await();
                 }
-                if (t.destinationID == null) {
-                    txMap.put("destination_name", DEFAULT_ACCOUNT);
-                } else {
-                    txMap.put("destination_id", t.destinationID);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(boolean probe, long start, boolean congested, boolean failed) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            inFlight--;
+            if (failed) {
+                consecutiveFailures++;
+                if (probe || (!open && consecutiveFailures >= FAILURES_TO_OPEN)) {
+                    trip(now);
                 }
-                String json = jsonb.toJson(Collections.singletonMap("transactions", Collections.singletonList(txMap)));
-                if (dryRun) {
-                    System.out.println(json);
-                    continue;
+            } else {
+                consecutiveFailures = 0;
+                if (open) {
+                    open = false;
+                    openFor = INITIAL_OPEN;
+                    System.err.println("Firefly III is reachable again, resuming requests");
                 }
-                try {
-                    HttpResponse<String> response = Utils.post(fireflyUrl, "/api/v1/transactions", apiToken, json);
-                    if (response.statusCode() == 200) {
-                        System.out.println("✓ Successfully imported transaction into Firefly III");
-                    } else {
-                        System.err.println("✗ Failed to import transaction into Firefly III. HTTP Status: " + response.statusCode());
-                        System.err.println("Response: " + response.body());
-                    }
+                if (probe) {
+                    probing = false;
+                }
+            }
 
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    return 1;
+            long latency = now - start;
+            if (congested) {
+                decrease(start, now, 0.5);
+            } else if (!failed) {
+                windowMin = Math.min(windowMin, latency);
+                baseline = Math.min(baseline, latency);
+                if (++windowSamples == BASELINE_WINDOW) {
+                    baseline = windowMin;
+                    windowMin = Long.MAX_VALUE;
+                    windowSamples = 0;
+                }
+                if (latency > LATENCY_TOLERANCE * baseline + LATENCY_SLACK.toNanos()) {
+                    decrease(start, now, 0.9);
+                } else if (2 * (inFlight + 1) >= limit) {
+                    // Only grow while the limit is what holds requests back
+                    limit = Math.min(MAX_LIMIT, limit + 1 / limit);
                 }
             }
-            return 0;
-            
-        } catch (IOException e) {
-            System.err.println("✗ Error reading file: " + e.getMessage());
-            return 1;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
-    private class Transaction {
-        String type;
-        String date;
-        String amount;
-        String description;
-        String sourceID;
-        String destinationID;
-        String category;
-
-        Transaction(String type, String date, String amount, String description, String sourceID, String destinationID, String category) {
-            if (sourceID == destinationID) {
-                System.out.println("Source ID: " + sourceID + " Destination ID: " + destinationID);
-                System.out.println("Description: " + description);
-                System.out.println("Category: " + category);
-                System.out.println("Amount: " + amount);
-                System.out.println("Transaction Type: " + type);
-                throw new IllegalArgumentException("sourceID and destinationID cannot be the same");
-            }
-            this.type = type;
-            this.date = date;
-            this.amount = amount;
-            this.description = description;
-            this.sourceID = sourceID;
-            this.category = category;
-            this.destinationID = destinationID;
+    private void trip(long now) {
+        if (open) {
+            openFor = openFor.multipliedBy(2).compareTo(MAX_OPEN) > 0 ? MAX_OPEN : openFor.multipliedBy(2);
+        } else {
+            open = true;
+            openSince = now;
+            metrics.get().increment("circuit_breaker_opened");
         }
+        probing = false;
+        openUntil = now + openFor.toNanos();
+        System.err.println("Warning: Firefly III looks unavailable, pausing requests for " + openFor.toSeconds() + " seconds");
     }
 
-    private String findAccountIdForProduct(String productNumber) throws IOException, InterruptedException {
-        if (productNumber == null || productNumber.isBlank()) {
-            return null;
+    private void decrease(long start, long now, double factor) {
+        if (start - lastDecrease > 0) {
+            limit = Math.max(1, limit * factor);
+            lastDecrease = now;
         }
+    }
 
-        // Check cache first (containsKey used to allow caching "not found" as null)
-        if (accountCache.containsKey(productNumber)) {
-            return accountCache.get(productNumber);
-        }
+    // Full jitter: a random wait of up to BASE_BACKOFF * 2^retry
+    private static Duration backoff(int retry) {
+        long ceiling = Math.min(MAX_BACKOFF.toNanos(), BASE_BACKOFF.toNanos() << Math.min(retry, 20));
+        return Duration.ofNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
 
-        HttpResponse<String> response = Utils.get(fireflyUrl, "/api/v1/accounts", apiToken);
+    private static void discard(HttpResponse<?> response) throws IOException {
+        if (response.body() instanceof InputStream body) {
+            body.close();
+        }
+    }
+}
 
-        int status = response.statusCode();
-        String body = response.body();
+/**
+ * Shared JSON machinery. Creating a Jsonb instance or a parser/generator
+ * factory is expensive, so every command uses these instances (all of which
+ * are thread safe).
+ */
+class JsonSupport {
 
-        if (status == 200 && body != null && !body.isEmpty()) {
-            Jsonb jsonb = JsonbBuilder.create();
-            try {
-                AccountsResponse accounts = jsonb.fromJson(body, AccountsResponse.class);
-                if (accounts != null && accounts.data != null) {
-                    for (AccountItem item : accounts.data) {
-                        if (item == null || item.attributes == null) {
-                            continue;
-                        }
-                        AccountAttributes a = item.attributes;
-                        if (matchesProduct(a, productNumber)) {
-                            accountCache.put(productNumber, item.id);
-                            return item.id;
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                // parsing failed; fall through to return null
-                System.err.println("Warning: could not parse accounts response: " + e.getMessage());
-            }
-        }
+    // JSON-B is only needed by some commands and is the slowest to start, so it is created on first use
+    private static final class JsonbHolder {
+        static final Jsonb JSONB = JsonbBuilder.create();
+    }
 
-        // Cache negative result to avoid repeated lookups
-        accountCache.put(productNumber, null);
-        return null;
+    static Jsonb jsonb() {
+        return JsonbHolder.JSONB;
     }
 
-    private boolean matchesProduct(AccountAttributes a, String productNumber) {
-        if (a == null) {
-            return false;
-        }
-        if (productNumber.equals(a.account_number)) {
-            return true;
-        }
-        if (productNumber.equals(a.iban)) {
-            return true;
-        }
-        if (a.notes != null && a.notes.contains(productNumber)) {
-            return true;
+    static final JsonParserFactory PARSERS = Json.createParserFactory(Map.of());
+
+    static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(Map.of());
+
+    /**
+     * Read the value following a key as a string, whatever its JSON type.
+     * Objects and arrays are skipped.
+     *
+     * @return The value, null for JSON null, objects and arrays
+     */
+    static String readString(JsonParser parser) {
+        switch (parser.next()) {
+            case VALUE_STRING, VALUE_NUMBER:
+                return parser.getString();
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case START_OBJECT:
+                parser.skipObject();
+                return null;
+            case START_ARRAY:
+                parser.skipArray();
+                return null;
+            default:
+                return null;
         }
-        return false;
     }
 
-    // JSON-B mapping classes for accounts endpoint
-    public static class AccountsResponse {
-        public java.util.List<AccountItem> data;
+    /**
+     * Skip the value following a key.
+     */
+    static void skipValue(JsonParser parser) {
+        readString(parser);
+    }
+}
+
+/**
+ * Timings and counters of a command run, written as JSON or in the Prometheus
+ * textfile format.
+ *
+ * HTTP latencies are kept per endpoint (the request path without query and
+ * with IDs replaced by {@code {id}}) in histograms with fixed buckets, so
+ * percentiles are reported as the upper bound of the bucket they fall in.
+ * All methods are thread safe.
+ */
+class Metrics {
+
+    // Upper bounds of the latency buckets, in seconds
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final Instant startedAt = Instant.now();
+    private final long started = System.nanoTime();
+    private final Map<String, LongAdder> phases = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> requests = new ConcurrentSkipListMap<>();
+    // Every request latency in nanoseconds per endpoint, if asked for
+    private final Map<String, Queue<Long>> samples;
+
+    Metrics() {
+        this(false);
+    }
+
+    /**
+     * @param keepSamples Keep every request latency, for exact percentiles
+     */
+    Metrics(boolean keepSamples) {
+        samples = keepSamples ? new ConcurrentSkipListMap<>() : null;
+    }
+
+    /**
+     * Measures the wall time of a phase until ended. Phases of the same name
+     * add up; phases running in parallel (e.g. in streaming mode) overlap.
+     */
+    interface Phase {
+        void end();
+    }
+
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        final LongAdder sumNanos = new LongAdder();
+        final Map<String, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+        void record(long nanos, String status) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sumNanos.add(nanos);
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        void addTo(long[] totals) {
+            for (int i = 0; i < buckets.length(); i++) {
+                totals[i] += buckets.get(i);
+            }
+        }
+    }
+
+    Phase phase(String name) {
+        long start = System.nanoTime();
+        LongAdder total = phases.computeIfAbsent(name, n -> new LongAdder());
+        return () -> total.add(System.nanoTime() - start);
+    }
+
+    void increment(String counter) {
+        add(counter, 1);
+    }
+
+    void add(String counter, long amount) {
+        counters.computeIfAbsent(counter, n -> new LongAdder()).add(amount);
+    }
+
+    long counter(String counter) {
+        LongAdder value = counters.get(counter);
+        return value == null ? 0 : value.sum();
+    }
+
+    /**
+     * @param status HTTP status code, or -1 if no response was received
+     */
+    void recordRequest(String path, int status, long nanos) {
+        String endpoint = endpoint(path);
+        requests.computeIfAbsent(endpoint, e -> new Histogram())
+                .record(nanos, status < 0 ? "error" : Integer.toString(status));
+        if (samples != null) {
+            samples.computeIfAbsent(endpoint, e -> new ConcurrentLinkedQueue<>()).add(nanos);
+        }
+    }
+
+    /**
+     * @return The sorted request latencies in nanoseconds per endpoint, empty
+     *         unless samples are kept
+     */
+    Map<String, long[]> latencySamples() {
+        Map<String, long[]> sorted = new TreeMap<>();
+        if (samples != null) {
+            samples.forEach((endpoint, nanos) -> {
+                long[] values = nanos.stream().mapToLong(Long::longValue).toArray();
+                Arrays.sort(values);
+                sorted.put(endpoint, values);
+            });
+        }
+        return sorted;
+    }
+
+    static String endpoint(String path) {
+        int query = path.indexOf('?');
+        return (query < 0 ? path : path.substring(0, query)).replaceAll("/\\d+(?=/|$)", "/{id}");
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - started) / 1e9;
+    }
+
+    private static double seconds(LongAdder nanos) {
+        return nanos.sum() / 1e9;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile, in seconds
+     * (infinite if it falls beyond the last bucket, NaN if there is no data).
+     */
+    private static double quantile(long[] buckets, double q) {
+        long count = 0;
+        for (long b : buckets) {
+            count += b;
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return i < BUCKETS.length ? BUCKETS[i] : Double.POSITIVE_INFINITY;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Share of the distinct products resolved from the in-memory or the
+     * persistent account cache rather than from the account index.
+     */
+    private double accountCacheHitRate() {
+        long hits = counter("account_cache_hits") + counter("account_persistent_cache_hits");
+        long lookups = hits + counter("account_cache_misses");
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    /**
+     * One line summary: throughput, phase times, HTTP latency percentiles over
+     * all endpoints and the account cache hit rate.
+     */
+    String summary() {
+        double elapsed = elapsedSeconds();
+        long rows = counter("rows");
+        StringBuilder sb = new StringBuilder("Metrics: ");
+        sb.append(rows).append(" rows in ").append(String.format("%.2f s", elapsed))
+          .append(String.format(" (%.1f rows/s)", rows / elapsed));
+        if (!phases.isEmpty()) {
+            sb.append(" | ");
+            String separator = "";
+            for (Map.Entry<String, LongAdder> phase : phases.entrySet()) {
+                sb.append(separator).append(phase.getKey()).append(String.format(" %.2f s", seconds(phase.getValue())));
+                separator = ", ";
+            }
+        }
+        long[] all = new long[BUCKETS.length + 1];
+        for (Histogram h : requests.values()) {
+            h.addTo(all);
+        }
+        long count = Arrays.stream(all).sum();
+        if (count > 0) {
+            sb.append(" | ").append(count).append(" HTTP requests, p50 ≤").append(formatMillis(quantile(all, 0.5)))
+              .append(", p95 ≤").append(formatMillis(quantile(all, 0.95)))
+              .append(", p99 ≤").append(formatMillis(quantile(all, 0.99)));
+        }
+        double hitRate = accountCacheHitRate();
+        if (!Double.isNaN(hitRate)) {
+            sb.append(String.format(" | account cache hit rate %.1f%%", hitRate * 100));
+        }
+        return sb.toString();
+    }
+
+    private static String formatMillis(double seconds) {
+        return Double.isInfinite(seconds) ? "∞" : (seconds * 1000 >= 1 ? String.format("%.0f ms", seconds * 1000) : String.format("%.1f ms", seconds * 1000));
+    }
+
+    /**
+     * Write the metrics to a file, in the Prometheus textfile format if the file
+     * name ends in {@code .prom}, as JSON otherwise. The file is replaced
+     * atomically, as expected by textfile collectors.
+     */
+    void write(Path file) throws IOException {
+        String content = file.getFileName().toString().endsWith(".prom") ? toPrometheus() : toJson();
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    String toJson() {
+        double elapsed = elapsedSeconds();
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = Json.createGeneratorFactory(Map.of(JsonGenerator.PRETTY_PRINTING, true)).createGenerator(out)) {
+            json.writeStartObject()
+                .write("started_at", startedAt.toString())
+                .write("elapsed_seconds", elapsed)
+                .write("rows_per_second", counter("rows") / elapsed);
+            json.writeStartObject("phases");
+            phases.forEach((name, nanos) -> json.write(name, seconds(nanos)));
+            json.writeEnd();
+            json.writeStartObject("counters");
+            counters.forEach((name, value) -> json.write(name, value.sum()));
+            json.writeEnd();
+            double hitRate = accountCacheHitRate();
+            if (!Double.isNaN(hitRate)) {
+                json.write("account_cache_hit_rate", hitRate);
+            }
+            json.writeStartObject("http");
+            requests.forEach((endpoint, h) -> {
+                long[] buckets = new long[BUCKETS.length + 1];
+                h.addTo(buckets);
+                json.writeStartObject(endpoint)
+                    .write("count", h.count())
+                    .write("sum_seconds", seconds(h.sumNanos));
+                for (double q : new double[] {0.5, 0.95, 0.99}) {
+                    double value = quantile(buckets, q);
+                    String name = "p" + Math.round(q * 100) + "_seconds";
+                    if (Double.isInfinite(value)) {
+                        json.write(name, "+Inf");
+                    } else {
+                        json.write(name, value);
+                    }
+                }
+                json.writeStartObject("buckets");
+                long cumulative = 0;
+                for (int i = 0; i < buckets.length; i++) {
+                    cumulative += buckets[i];
+                    json.write(i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf", cumulative);
+                }
+                json.writeEnd();
+                json.writeStartObject("status");
+                h.statuses.forEach((status, count) -> json.write(status, count.sum()));
+                json.writeEnd();
+                json.writeEnd();
+            });
+            json.writeEnd();
+            json.writeEnd();
+        }
+        return out + "\n";
+    }
+
+    String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP firefly_importer_elapsed_seconds Wall time of the run\n")
+          .append("# TYPE firefly_importer_elapsed_seconds gauge\n")
+          .append("firefly_importer_elapsed_seconds ").append(elapsedSeconds()).append('\n');
+        sb.append("# HELP firefly_importer_rows_per_second Parsed rows per second of wall time\n")
+          .append("# TYPE firefly_importer_rows_per_second gauge\n")
+          .append("firefly_importer_rows_per_second ").append(counter("rows") / elapsedSeconds()).append('\n');
+        sb.append("# HELP firefly_importer_phase_seconds Wall time per phase of the run\n")
+          .append("# TYPE firefly_importer_phase_seconds gauge\n");
+        phases.forEach((name, nanos) ->
+            sb.append("firefly_importer_phase_seconds{phase=\"").append(name).append("\"} ").append(seconds(nanos)).append('\n'));
+        counters.forEach((name, value) ->
+            sb.append("# TYPE firefly_importer_").append(name).append("_total counter\n")
+              .append("firefly_importer_").append(name).append("_total ").append(value.sum()).append('\n'));
+        sb.append("# HELP firefly_importer_http_request_duration_seconds Latency of Firefly III API requests\n")
+          .append("# TYPE firefly_importer_http_request_duration_seconds histogram\n");
+        requests.forEach((endpoint, h) -> {
+            long[] buckets = new long[BUCKETS.length + 1];
+            h.addTo(buckets);
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                sb.append("firefly_importer_http_request_duration_seconds_bucket{endpoint=\"").append(endpoint)
+                  .append("\",le=\"").append(i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf").append("\"} ")
+                  .append(cumulative).append('\n');
+            }
+            sb.append("firefly_importer_http_request_duration_seconds_sum{endpoint=\"").append(endpoint).append("\"} ")
+              .append(seconds(h.sumNanos)).append('\n');
+            sb.append("firefly_importer_http_request_duration_seconds_count{endpoint=\"").append(endpoint).append("\"} ")
+              .append(cumulative).append('\n');
+        });
+        sb.append("# HELP firefly_importer_http_responses_total Firefly III API responses by status code\n")
+          .append("# TYPE firefly_importer_http_responses_total counter\n");
+        requests.forEach((endpoint, h) -> h.statuses.forEach((status, count) ->
+            sb.append("firefly_importer_http_responses_total{endpoint=\"").append(endpoint).append("\",status=\"")
+              .append(status).append("\"} ").append(count.sum()).append('\n')));
+        return sb.toString();
+    }
+}
+
+/**
+ * Submits JSON payloads to a Firefly III endpoint on virtual threads, keeping
+ * at most {@code concurrency} requests in flight.
+ *
+ * Results are handed to the listener in submission order. Completed results
+ * waiting for a slower predecessor, such as a request waiting out a
+ * Retry-After, are bounded by a window of {@value #REORDER_WINDOW} times the
+ * concurrency; only when it is full does the predecessor hold up new
+ * requests. Successful
+ * results can also be handed to a second callback as soon as they arrive, for
+ * what must not wait for the slower predecessors, such as journaling.
+ */
+class Submitter<K> implements AutoCloseable {
+
+    // Results held for in-order reporting, in multiples of the concurrency
+    private static final int REORDER_WINDOW = 64;
+
+    /**
+     * @param body ID of the created object on success, the error response otherwise
+     */
+    record Result<K>(int index, String label, K key, int status, String body, Exception error) {
+        boolean succeeded() {
+            return error == null && status == 200;
+        }
+    }
+
+    private final ReusableOptions api;
+    private final String path;
+    private final Consumer<Result<K>> committed;
+    private final Consumer<Result<K>> listener;
+    private final Semaphore inFlight;
+    // Results wait for earlier ones to be reported in order, so a request that
+    // waits to be retried must not stop the requests after it
+    private final Semaphore window;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Guards the fields below; a lock rather than synchronized to avoid pinning virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Result<K>> completed = new HashMap<>();
+    private final List<Result<K>> failures = new ArrayList<>();
+    private int nextToReport;
+    private int succeeded;
+
+    private int submitted;
+
+    Submitter(ReusableOptions api, String path, int concurrency, Consumer<Result<K>> listener) {
+        this(api, path, concurrency, null, listener);
+    }
+
+    /**
+     * @param committed Receives every successful result as soon as it arrives,
+     *                  out of order and from several threads at once
+     * @param listener Receives every result, in submission order
+     */
+    Submitter(ReusableOptions api, String path, int concurrency, Consumer<Result<K>> committed, Consumer<Result<K>> listener) {
+        this.api = api;
+        this.path = path;
+        this.committed = committed;
+        this.listener = listener;
+        this.inFlight = new Semaphore(concurrency);
+        this.window = new Semaphore(concurrency * REORDER_WINDOW);
+    }
+
+    /**
+     * Submit a payload, blocking while the concurrency is used up or too many
+     * results wait for an earlier one to be reported.
+     *
+     * @param label Short human readable description used when reporting failures
+     * @param key Identifies the payload in the result, e.g. for journaling
+     * @param json Request body
+     */
+    void submit(String label, K key, byte[] json) throws InterruptedException {
+        window.acquire();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            window.release();
+            throw e;
+        }
+        int index = submitted++;
+        executor.execute(() -> {
+            Result<K> result;
+            try {
+                result = send(index, label, key, json);
+            } finally {
+                inFlight.release();
+            }
+            if (committed != null && result.succeeded()) {
+                committed.accept(result);
+            }
+            complete(result);
+        });
+    }
+
+    private Result<K> send(int index, String label, K key, byte[] json) {
+        try {
+            HttpResponse<String> response = api.post(path, json);
+            if (response.statusCode() / 100 == 3) {
+                return new Result<>(index, label, key, response.statusCode(), null, Utils.redirected(response));
+            }
+            return new Result<>(index, label, key, response.statusCode(), response.body(), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result<>(index, label, key, -1, null, e);
+        } catch (IOException | RuntimeException e) {
+            return new Result<>(index, label, key, -1, null, e);
+        }
+    }
+
+    private void complete(Result<K> result) {
+        lock.lock();
+        try {
+            completed.put(result.index(), result);
+            Result<K> next;
+            while ((next = completed.remove(nextToReport)) != null) {
+                nextToReport++;
+                if (next.succeeded()) {
+                    succeeded++;
+                } else {
+                    failures.add(next);
+                }
+                listener.accept(next);
+                window.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int submitted() {
+        return submitted;
+    }
+
+    int succeeded() {
+        return succeeded;
+    }
+
+    List<Result<K>> failures() {
+        return failures;
+    }
+
+    /**
+     * Wait for all submitted requests to complete and be reported.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
+
+/**
+ * Bounded queue connecting two stages of a pipeline. The producer blocks while
+ * the pipe is full, which throttles the stages upstream of a slow consumer.
+ *
+ * A consumer that fails cancels its input pipe, so that its producers stop
+ * instead of waiting forever for room in a pipe nobody drains.
+ */
+class Pipe<T> {
+
+    private static final Object END = new Object();
+    // How often a producer waiting for room checks whether the pipe was cancelled
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private final BlockingQueue<Object> queue;
+    private volatile boolean cancelled;
+
+    Pipe(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @throws CancellationException if the consumer cancelled the pipe
+     */
+    void put(T item) throws InterruptedException {
+        while (true) {
+            if (cancelled) {
+                throw new CancellationException("The consumer of the pipe failed");
+            }
+            if (queue.offer(item, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Signal the consumer that no more items will follow. Does nothing if the
+     * consumer cancelled the pipe.
+     */
+    void close() throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(END, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop consuming, failing the current and any later put of the producers.
+     */
+    void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    /**
+     * @return The next item, or null once the producer closed the pipe
+     */
+    @SuppressWarnings("unchecked")
+    T take() throws InterruptedException {
+        Object item = queue.take();
+        return item == END ? null : (T) item;
+    }
+}
+
+/**
+ * In-memory index over all Firefly III accounts, used to map bank product
+ * numbers to account IDs without a request per product.
+ *
+ * A product matches an account if it equals the account number or the IBAN, or
+ * appears anywhere in the notes. When several accounts match, the first one in
+ * the order returned by the API wins, whichever field matched.
+ */
+class AccountIndex {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int PAGE_FETCH_CONCURRENCY = 8;
+
+    private final List<AccountItem> accounts;
+
+    // account_number / iban -> position of the first account with that value
+    private final Map<String, Integer> byAccountNumber = new HashMap<>();
+    private final Map<String, Integer> byIban = new HashMap<>();
+
+    AccountIndex(List<AccountItem> accounts) {
+        this.accounts = accounts;
+        for (int i = 0; i < accounts.size(); i++) {
+            AccountAttributes a = accounts.get(i).attributes;
+            if (a.account_number != null) {
+                byAccountNumber.putIfAbsent(a.account_number, i);
+            }
+            if (a.iban != null) {
+                byIban.putIfAbsent(a.iban, i);
+            }
+        }
+    }
+
+    /**
+     * Fetch every page of {@code /api/v1/accounts}. The first page tells us how
+     * many pages there are, the rest are fetched in parallel.
+     */
+    static AccountIndex load(ReusableOptions api) throws IOException, InterruptedException {
+        AccountsResponse first = fetchPage(api, 1, PAGE_SIZE);
+        int totalPages = first.meta != null && first.meta.pagination != null ? first.meta.pagination.total_pages : 1;
+
+        List<AccountItem> accounts = new ArrayList<>();
+        addAll(accounts, first);
+        if (totalPages > 1) {
+            Semaphore permits = new Semaphore(PAGE_FETCH_CONCURRENCY);
+            List<Future<AccountsResponse>> pages = new ArrayList<>(totalPages - 1);
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int page = 2; page <= totalPages; page++) {
+                    int p = page;
+                    pages.add(executor.submit(() -> {
+                        permits.acquire();
+                        try {
+                            return fetchPage(api, p, PAGE_SIZE);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                }
+                for (Future<AccountsResponse> page : pages) {
+                    addAll(accounts, page.get());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return new AccountIndex(accounts);
+    }
+
+    /**
+     * Number of accounts on the server, fetched with a single one-item page.
+     */
+    static int count(ReusableOptions api) throws IOException {
+        try {
+            AccountsResponse response = fetchPage(api, 1, 1);
+            return response.meta != null && response.meta.pagination != null ? response.meta.pagination.total : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static AccountsResponse fetchPage(ReusableOptions api, int page, int pageSize) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = api.getStream("/api/v1/accounts?limit=" + pageSize + "&page=" + page);
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Could not fetch accounts page " + page + ". HTTP Status: " + response.statusCode());
+            }
+            return parsePage(body);
+        } catch (JsonException e) {
+            throw new IOException("Could not parse accounts page " + page + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse a page of accounts with the streaming parser, keeping only the
+     * fields we match on instead of binding the whole document.
+     */
+    static AccountsResponse parsePage(InputStream body) {
+        AccountsResponse response = new AccountsResponse();
+        try (JsonParser parser = JsonSupport.PARSERS.createParser(body)) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("Expected a JSON object");
+            }
+            for (JsonParser.Event e = parser.next(); e == JsonParser.Event.KEY_NAME; e = parser.next()) {
+                switch (parser.getString()) {
+                    case "data" -> response.data = parseAccounts(parser);
+                    case "meta" -> response.meta = parseMeta(parser);
+                    default -> JsonSupport.skipValue(parser);
+                }
+            }
+        }
+        return response;
+    }
+
+    private static List<AccountItem> parseAccounts(JsonParser parser) {
+        List<AccountItem> accounts = new ArrayList<>();
+        if (parser.next() != JsonParser.Event.START_ARRAY) {
+            throw new JsonException("Expected an array of accounts");
+        }
+        for (JsonParser.Event e = parser.next(); e == JsonParser.Event.START_OBJECT; e = parser.next()) {
+            AccountItem item = new AccountItem();
+            for (JsonParser.Event k = parser.next(); k == JsonParser.Event.KEY_NAME; k = parser.next()) {
+                switch (parser.getString()) {
+                    case "id" -> item.id = JsonSupport.readString(parser);
+                    case "attributes" -> item.attributes = parseAttributes(parser);
+                    default -> JsonSupport.skipValue(parser);
+                }
+            }
+            accounts.add(item);
+        }
+        return accounts;
+    }
+
+    private static AccountAttributes parseAttributes(JsonParser parser) {
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            return null;
+        }
+        AccountAttributes attributes = new AccountAttributes();
+        for (JsonParser.Event k = parser.next(); k == JsonParser.Event.KEY_NAME; k = parser.next()) {
+            switch (parser.getString()) {
+                case "name" -> attributes.name = JsonSupport.readString(parser);
+                case "account_number" -> attributes.account_number = JsonSupport.readString(parser);
+                case "iban" -> attributes.iban = JsonSupport.readString(parser);
+                case "notes" -> attributes.notes = JsonSupport.readString(parser);
+                default -> JsonSupport.skipValue(parser);
+            }
+        }
+        return attributes;
+    }
+
+    private static Meta parseMeta(JsonParser parser) {
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            return null;
+        }
+        Meta meta = new Meta();
+        for (JsonParser.Event k = parser.next(); k == JsonParser.Event.KEY_NAME; k = parser.next()) {
+            if (!"pagination".equals(parser.getString()) || parser.next() != JsonParser.Event.START_OBJECT) {
+                JsonSupport.skipValue(parser);
+                continue;
+            }
+            meta.pagination = new Pagination();
+            for (JsonParser.Event p = parser.next(); p == JsonParser.Event.KEY_NAME; p = parser.next()) {
+                switch (parser.getString()) {
+                    case "total" -> meta.pagination.total = Integer.parseInt(JsonSupport.readString(parser));
+                    case "total_pages" -> meta.pagination.total_pages = Integer.parseInt(JsonSupport.readString(parser));
+                    default -> JsonSupport.skipValue(parser);
+                }
+            }
+        }
+        return meta;
+    }
+
+    private static void addAll(List<AccountItem> accounts, AccountsResponse response) {
+        if (response == null || response.data == null) {
+            return;
+        }
+        for (AccountItem item : response.data) {
+            if (item != null && item.attributes != null) {
+                accounts.add(item);
+            }
+        }
+    }
+
+    int size() {
+        return accounts.size();
+    }
+
+    /**
+     * Add an account created after the index was loaded. It goes last, so it
+     * only matches products no earlier account matches.
+     */
+    void add(AccountItem account) {
+        int position = accounts.size();
+        accounts.add(account);
+        if (account.attributes.account_number != null) {
+            byAccountNumber.putIfAbsent(account.attributes.account_number, position);
+        }
+        if (account.attributes.iban != null) {
+            byIban.putIfAbsent(account.attributes.iban, position);
+        }
+    }
+
+    /**
+     * Resolve a batch of product numbers. The notes of all accounts are scanned
+     * once for all products together.
+     *
+     * @return productNumber -> account ID, with null values for products without a matching account
+     */
+    Map<String, String> resolve(Collection<String> productNumbers) {
+        List<String> products = new ArrayList<>(new LinkedHashSet<>(productNumbers));
+        int[] best = new int[products.size()];
+        for (int p = 0; p < products.size(); p++) {
+            String product = products.get(p);
+            best[p] = Math.min(
+                byAccountNumber.getOrDefault(product, Integer.MAX_VALUE),
+                byIban.getOrDefault(product, Integer.MAX_VALUE));
+        }
+
+        // Notes can only improve on a match if they belong to an account listed before it
+        AhoCorasick matcher = new AhoCorasick(products);
+        int limit = Math.min(accounts.size(), max(best));
+        for (int i = 0; i < limit; i++) {
+            String notes = accounts.get(i).attributes.notes;
+            if (notes == null || notes.isEmpty()) {
+                continue;
+            }
+            int account = i;
+            boolean[] improved = {false};
+            matcher.search(notes, p -> {
+                if (account < best[p]) {
+                    best[p] = account;
+                    improved[0] = true;
+                }
+            });
+            if (improved[0]) {
+                limit = Math.min(accounts.size(), max(best));
+            }
+        }
+
+        Map<String, String> result = new HashMap<>();
+        for (int p = 0; p < products.size(); p++) {
+            result.put(products.get(p), best[p] == Integer.MAX_VALUE ? null : accounts.get(best[p]).id);
+        }
+        return result;
+    }
+
+    private static int max(int[] values) {
+        int max = 0;
+        for (int v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+
+    // Mapping classes for the accounts endpoint, filled by the streaming parser
+    public static class AccountsResponse {
+        public java.util.List<AccountItem> data;
+        public Meta meta;
     }
 
     public static class AccountItem {
         public String id;
-        public AccountAttributes attributes;
+        public AccountAttributes attributes;
+    }
+
+    public static class AccountAttributes {
+        public String name;
+        public String account_number;
+        public String iban;
+        public String notes;
+    }
+
+    public static class Meta {
+        public Pagination pagination;
+    }
+
+    public static class Pagination {
+        public int total;
+        public int total_pages;
+    }
+}
+
+/**
+ * Persistent productNumber -> account ID cache, shared across runs against the
+ * same Firefly III instance.
+ *
+ * The cache is a tab separated file. The first line holds the number of
+ * accounts on the server when the cache was written; if the server reports a
+ * different count, accounts were added or removed and the whole cache is
+ * discarded. Every other line holds a product number, the account ID (empty
+ * when no account matched) and the epoch second the entry was cached at.
+ */
+class AccountCache {
+
+    private static final String ACCOUNT_COUNT = "#accounts";
+
+    private final Path file;
+    private final Duration ttl;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int accountCount = -1;
+    private boolean dirty;
+
+    private record Entry(String accountId, long cachedAt) {
+    }
+
+    private AccountCache(Path file, Duration ttl) {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Cache file for the given Firefly III instance and user inside the cache
+     * directory. Different tokens may belong to users who see different
+     * accounts, so the file name includes a hash of the token, never the token
+     * itself.
+     */
+    static Path fileFor(Path cacheDir, String fireflyUrl, String apiToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiToken.getBytes(StandardCharsets.UTF_8));
+            return cacheDir.resolve("accounts-" + fireflyUrl.replaceAll("[^A-Za-z0-9.-]+", "_")
+                                    + "-" + HexFormat.of().formatHex(digest, 0, 8) + ".tsv");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static AccountCache empty(Path file, Duration ttl) {
+        AccountCache cache = new AccountCache(file, ttl);
+        cache.dirty = true;
+        return cache;
+    }
+
+    /**
+     * Read the cache file, skipping expired entries. A missing or unreadable
+     * file results in an empty cache.
+     */
+    static AccountCache load(Path file, Duration ttl) {
+        AccountCache cache = new AccountCache(file, ttl);
+        if (!Files.exists(file)) {
+            return cache;
+        }
+        long oldest = Instant.now().minus(ttl).getEpochSecond();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 2 && ACCOUNT_COUNT.equals(fields[0])) {
+                    cache.accountCount = Integer.parseInt(fields[1]);
+                } else if (fields.length == 3) {
+                    long cachedAt = Long.parseLong(fields[2]);
+                    if (cachedAt > oldest) {
+                        cache.entries.put(fields[0], new Entry(fields[1].isEmpty() ? null : fields[1], cachedAt));
+                    } else {
+                        cache.dirty = true;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Warning: ignoring unreadable account cache " + file + ": " + e.getMessage());
+            cache.entries.clear();
+            cache.accountCount = -1;
+            cache.dirty = true;
+        }
+        return cache;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    int accountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Record the number of accounts on the server, dropping all entries if it
+     * changed since they were cached.
+     *
+     * @return true if the cached entries are still valid
+     */
+    boolean validate(int accountCount) {
+        boolean valid = accountCount == this.accountCount;
+        if (!valid) {
+            entries.clear();
+            this.accountCount = accountCount;
+            dirty = true;
+        }
+        return valid;
+    }
+
+    boolean contains(String productNumber) {
+        return entries.containsKey(productNumber);
+    }
+
+    /**
+     * @return The cached account ID, or null if the product is cached as not found
+     */
+    String get(String productNumber) {
+        Entry entry = entries.get(productNumber);
+        return entry == null ? null : entry.accountId();
+    }
+
+    void putAll(Map<String, String> accountIds) {
+        long now = Instant.now().getEpochSecond();
+        for (Map.Entry<String, String> e : accountIds.entrySet()) {
+            entries.put(e.getKey(), new Entry(e.getValue(), now));
+        }
+        dirty = true;
+    }
+
+    /**
+     * Record accounts created by this run, so that the next run does not take
+     * the changed number of accounts for a reason to rebuild the cache.
+     */
+    void accountsCreated(int count) {
+        if (accountCount >= 0) {
+            accountCount += count;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Write the cache if it changed. The file is replaced atomically so that
+     * concurrent runs never see a partially written cache.
+     */
+    void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(ACCOUNT_COUNT).append('\t').append(accountCount).append('\n');
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append(e.getKey()).append('\t')
+              .append(entry.accountId() == null ? "" : entry.accountId()).append('\t')
+              .append(entry.cachedAt()).append('\n');
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        dirty = false;
+    }
+}
+
+/**
+ * Transactions already stored in Firefly III for a set of accounts and a date
+ * range, indexed by date, amount, asset accounts and description so that
+ * re-imported rows can be dropped locally instead of being POSTed again.
+ *
+ * The index is a multiset: each existing transaction matches at most one
+ * imported transaction.
+ */
+class ExistingTransactions {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int PAGE_FETCH_CONCURRENCY = 8;
+
+    private final Map<String, Integer> counts = new HashMap<>();
+    private int size;
+
+    /**
+     * Fetch the transactions of the given accounts between start and end
+     * (inclusive, ISO dates). The first page of every account is fetched in
+     * parallel, then all remaining pages.
+     */
+    static ExistingTransactions load(ReusableOptions api, Collection<String> accountIds, String start, String end) throws IOException, InterruptedException {
+        Jsonb jsonb = JsonSupport.jsonb();
+        Semaphore permits = new Semaphore(PAGE_FETCH_CONCURRENCY);
+        // A transfer between two of the accounts is listed for both, keep each split once
+        Map<String, TransactionSplit> splits = new ConcurrentHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> firstPages = new ArrayList<>();
+            List<String> accounts = new ArrayList<>(accountIds);
+            for (String accountId : accounts) {
+                firstPages.add(executor.submit(() -> fetchPage(api, jsonb, permits, splits, accountId, start, end, 1)));
+            }
+            List<Future<Integer>> otherPages = new ArrayList<>();
+            for (int i = 0; i < accounts.size(); i++) {
+                String accountId = accounts.get(i);
+                int totalPages = firstPages.get(i).get();
+                for (int page = 2; page <= totalPages; page++) {
+                    int p = page;
+                    otherPages.add(executor.submit(() -> fetchPage(api, jsonb, permits, splits, accountId, start, end, p)));
+                }
+            }
+            for (Future<Integer> page : otherPages) {
+                page.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+
+        ExistingTransactions existing = new ExistingTransactions();
+        for (TransactionSplit split : splits.values()) {
+            String key = key(split);
+            if (key != null) {
+                existing.counts.merge(key, 1, Integer::sum);
+                existing.size++;
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return The total number of pages
+     */
+    private static int fetchPage(ReusableOptions api, Jsonb jsonb, Semaphore permits, Map<String, TransactionSplit> splits,
+                                 String accountId, String start, String end, int page) throws IOException, InterruptedException {
+        HttpResponse<String> response;
+        permits.acquire();
+        try {
+            response = api.get("/api/v1/accounts/" + accountId + "/transactions?start=" + start + "&end=" + end
+                               + "&limit=" + PAGE_SIZE + "&page=" + page);
+        } finally {
+            permits.release();
+        }
+        int status = response.statusCode();
+        String body = response.body();
+        if (status != 200 || body == null || body.isEmpty()) {
+            throw new IOException("Could not fetch transactions of account " + accountId + ". HTTP Status: " + status);
+        }
+        TransactionsResponse transactions;
+        try {
+            transactions = jsonb.fromJson(body, TransactionsResponse.class);
+        } catch (Exception e) {
+            throw new IOException("Could not parse transactions of account " + accountId + ": " + e.getMessage(), e);
+        }
+        if (transactions.data != null) {
+            for (TransactionGroup group : transactions.data) {
+                if (group == null || group.attributes == null || group.attributes.transactions == null) {
+                    continue;
+                }
+                List<TransactionSplit> groupSplits = group.attributes.transactions;
+                for (int i = 0; i < groupSplits.size(); i++) {
+                    splits.put(group.id + "/" + i, groupSplits.get(i));
+                }
+            }
+        }
+        return transactions.meta != null && transactions.meta.pagination != null ? transactions.meta.pagination.total_pages : 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Consume an existing transaction matching the given one.
+     *
+     * @param sourceId Asset account the money comes from, null for deposits
+     * @param destinationId Asset account the money goes to, null for withdrawals
+     * @return true if a matching transaction exists (and was not matched before)
+     */
+    boolean remove(String date, long amount, String sourceId, String destinationId, String description) {
+        String key = key(date, amount, sourceId, destinationId, description);
+        Integer count = counts.get(key);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count - 1);
+        }
+        return true;
+    }
+
+    private static String key(TransactionSplit split) {
+        if (split == null || split.type == null || split.date == null || split.amount == null) {
+            return null;
+        }
+        long amount;
+        try {
+            amount = new BigDecimal(split.amount).movePointRight(2)
+                    .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            return null;
+        }
+        // The date carries the time and offset of the user's timezone, the day comes first
+        String date = split.date.length() > 10 ? split.date.substring(0, 10) : split.date;
+        return switch (split.type) {
+            case "withdrawal" -> key(date, amount, split.source_id, null, split.description);
+            case "deposit" -> key(date, amount, null, split.destination_id, split.description);
+            case "transfer" -> key(date, amount, split.source_id, split.destination_id, split.description);
+            default -> null;
+        };
+    }
+
+    private static String key(String date, long amount, String sourceId, String destinationId, String description) {
+        return date + "\u001F" + amount + "\u001F" + sourceId + "\u001F" + destinationId + "\u001F" + description;
+    }
+
+    // JSON-B mapping classes for the account transactions endpoint
+    public static class TransactionsResponse {
+        public java.util.List<TransactionGroup> data;
+        public AccountIndex.Meta meta;
+    }
+
+    public static class TransactionGroup {
+        public String id;
+        public TransactionGroupAttributes attributes;
+    }
+
+    public static class TransactionGroupAttributes {
+        public java.util.List<TransactionSplit> transactions;
+    }
+
+    public static class TransactionSplit {
+        public String type;
+        public String date;
+        public String amount;
+        public String description;
+        public String source_id;
+        public String destination_id;
+    }
+}
+
+/**
+ * Append-only record of the transactions committed to Firefly III, kept next
+ * to the imported file so that an interrupted import can be resumed without
+ * creating duplicates.
+ *
+ * Every line holds the key of a committed transaction, which is the hash of
+ * its content, and the ID Firefly III assigned to it, separated by a tab.
+ * Identical transactions share a key, so the number of lines with a key is
+ * the number of copies committed. Each record is written to the file as soon
+ * as it is known, but the file is only synced to disk every
+ * {@value #SYNC_EVERY} records and on close.
+ */
+class ImportJournal implements AutoCloseable {
+
+    private static final int SYNC_EVERY = 64;
+
+    private final FileChannel channel;
+    // Records arrive from the submitting threads as their transactions are created
+    private final ReentrantLock lock = new ReentrantLock();
+    private int unsynced;
+
+    ImportJournal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static Path fileFor(Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + ".journal");
+    }
+
+    /**
+     * Count the journaled transactions by key, adding to the given counts.
+     *
+     * @return Number of journaled transactions, 0 if there is no journal yet
+     */
+    static int readCommitted(Path file, Map<String, Integer> counts) throws IOException {
+        int total = 0;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    int tab = line.indexOf('\t');
+                    // A torn last line after a crash has no tab and is ignored
+                    if (tab > 0) {
+                        counts.merge(line.substring(0, tab), 1, Integer::sum);
+                        total++;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    void record(String key, String fireflyId) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((key + "\t" + (fireflyId == null ? "" : fireflyId) + "\n").getBytes(StandardCharsets.UTF_8));
+        lock.lock();
+        try {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            if (++unsynced >= SYNC_EVERY) {
+                channel.force(false);
+                unsynced = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * Aho-Corasick automaton finding all occurrences of a set of patterns in a text
+ * in a single pass.
+ */
+class AhoCorasick {
+
+    private final List<Map<Character, Integer>> next = new ArrayList<>();
+    private final List<Integer> fail = new ArrayList<>();
+    // Patterns ending at each node, including those reachable through fail links
+    private final List<List<Integer>> output = new ArrayList<>();
+
+    AhoCorasick(List<String> patterns) {
+        newNode();
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer child = next.get(node).get(pattern.charAt(i));
+                if (child == null) {
+                    child = newNode();
+                    next.get(node).put(pattern.charAt(i), child);
+                }
+                node = child;
+            }
+            output.get(node).add(p);
+        }
+
+        // Breadth-first, so that fail links always point to already completed nodes
+        ArrayDeque<Integer> queue = new ArrayDeque<>(next.get(0).values());
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : next.get(node).entrySet()) {
+                int child = edge.getValue();
+                int f = fail.get(node);
+                while (f != 0 && !next.get(f).containsKey(edge.getKey())) {
+                    f = fail.get(f);
+                }
+                Integer target = next.get(f).get(edge.getKey());
+                int childFail = target != null && target != child ? target : 0;
+                fail.set(child, childFail);
+                output.get(child).addAll(output.get(childFail));
+                queue.add(child);
+            }
+        }
+    }
+
+    private int newNode() {
+        next.add(new HashMap<>());
+        fail.add(0);
+        output.add(new ArrayList<>());
+        return next.size() - 1;
+    }
+
+    /**
+     * Report the index of every pattern occurring in the text, once per occurrence.
+     */
+    void search(CharSequence text, IntConsumer onMatch) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            while (node != 0 && !next.get(node).containsKey(c)) {
+                node = fail.get(node);
+            }
+            node = next.get(node).getOrDefault(c, 0);
+            for (int p : output.get(node)) {
+                onMatch.accept(p);
+            }
+        }
+    }
+}
+
+/**
+ * Splits a tab separated line into fields without copying it, and converts
+ * fields of the Piraeus export in place.
+ *
+ * Fields are kept as offsets into the line. Values that repeat across rows
+ * (categories, product numbers, dates) are interned, so that a row only
+ * allocates the strings that are new. An instance is reused for all lines and
+ * is not thread safe.
+ */
+class RowTokenizer {
+
+    private static final int MAX_FIELDS = 16;
+
+    private static final int INTERN_CAPACITY = 4096;
+
+    private CharSequence line;
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private int fieldCount;
+
+    // Open addressing table of interned values, at most half full
+    private final String[] interned = new String[INTERN_CAPACITY * 2];
+    private int internedCount;
+
+    private final StringBuilder scratch = new StringBuilder();
+
+    // Rows are mostly sorted by date, so remembering the last date avoids most conversions
+    private int lastDateKey = -1;
+    private String lastDate;
+
+    /**
+     * Tokenize a line, ignoring leading and trailing whitespace like
+     * {@link String#trim()}.
+     *
+     * @return Number of fields, 0 for a blank line
+     */
+    int tokenize(CharSequence line) {
+        this.line = line;
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') start++;
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+        fieldCount = 0;
+        if (start == end) {
+            return 0;
+        }
+        int fieldStart = start;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == '\t') {
+                if (!addField(fieldStart, i)) return fieldCount;
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, end);
+        return fieldCount;
+    }
+
+    private boolean addField(int start, int end) {
+        if (fieldCount == MAX_FIELDS) {
+            // More fields than any supported format has, the count is enough to reject the line
+            fieldCount++;
+            return false;
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+        return true;
+    }
+
+    String string(int field) {
+        return line.subSequence(starts[field], ends[field]).toString();
+    }
+
+    /**
+     * The field as a string, shared with earlier rows with the same value.
+     */
+    String internedString(int field) {
+        return intern(line, starts[field], ends[field]);
+    }
+
+    /**
+     * Convert a {@code d/M/yyyy} date to ISO 8601 ({@code yyyy-MM-dd}).
+     *
+     * @return The ISO date, or the field unchanged if it is not such a date
+     */
+    String isoDate(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        int i = start;
+        int day = 0, month = 0, year = 0;
+        int digits;
+        for (digits = 0; i < end && digits < 2 && isDigit(line.charAt(i)); i++, digits++) {
+            day = day * 10 + line.charAt(i) - '0';
+        }
+        if (digits == 0 || i == end || line.charAt(i++) != '/') return string(field);
+        for (digits = 0; i < end && digits < 2 && isDigit(line.charAt(i)); i++, digits++) {
+            month = month * 10 + line.charAt(i) - '0';
+        }
+        if (digits == 0 || i == end || line.charAt(i++) != '/') return string(field);
+        for (digits = 0; i < end && digits < 4 && isDigit(line.charAt(i)); i++, digits++) {
+            year = year * 10 + line.charAt(i) - '0';
+        }
+        if (digits != 4 || i != end || month < 1 || month > 12 || day < 1 || day > 31) return string(field);
+
+        int key = (year * 100 + month) * 100 + day;
+        if (key != lastDateKey) {
+            // Like DateTimeFormatter's default (smart) resolution, clamp e.g. 30/2 to the end of the month
+            LocalDate firstOfMonth = LocalDate.of(year, month, 1);
+            lastDate = firstOfMonth.withDayOfMonth(Math.min(day, firstOfMonth.lengthOfMonth())).toString();
+            lastDateKey = key;
+        }
+        return lastDate;
+    }
+
+    /**
+     * Normalize a product number: drop the friendly name inside parentheses and
+     * all whitespace, e.g. {@code "5001 0012 34567 (Savings)"} becomes
+     * {@code "5001001234567"}.
+     */
+    String productNumber(int field) {
+        int end = ends[field];
+        scratch.setLength(0);
+        for (int i = starts[field]; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '(') {
+                int close = indexOf(')', i + 1, end);
+                if (close >= 0) {
+                    i = close;
+                    continue;
+                }
+            }
+            if (!isWhitespace(c)) {
+                scratch.append(c);
+            }
+        }
+        return intern(scratch, 0, scratch.length());
+    }
+
+    /**
+     * Parse an amount such as {@code "-1.234,56 €"} into minor units (cents).
+     * Dots are thousands separators, the comma is the decimal separator and
+     * anything after the first space (the currency) is ignored.
+     *
+     * @throws NumberFormatException if the field is not such an amount
+     */
+    long amount(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            negative = line.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (isDigit(c)) {
+                if (fractionDigits >= 0 && ++fractionDigits > 2) {
+                    // Only zeros may follow the cents
+                    if (c != '0') {
+                        throw new NumberFormatException("Unsupported amount: " + string(field));
+                    }
+                    continue;
+                }
+                if (++digits > 17) {
+                    throw new NumberFormatException("Unsupported amount: " + string(field));
+                }
+                units = units * 10 + c - '0';
+            } else if (c == ',' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c == ' ') {
+                break;
+            } else if (c != '.') {
+                throw new NumberFormatException("Invalid amount: " + string(field));
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid amount: " + string(field));
+        }
+        for (int f = Math.max(fractionDigits, 0); f < 2; f++) {
+            units *= 10;
+        }
+        return negative ? -units : units;
+    }
+
+    private String intern(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int mask = interned.length - 1;
+        for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+            String s = interned[slot];
+            if (s == null) {
+                String value = chars.subSequence(start, end).toString();
+                if (internedCount < INTERN_CAPACITY) {
+                    interned[slot] = value;
+                    internedCount++;
+                }
+                return value;
+            }
+            if (s.hashCode() == hash && contentEquals(s, chars, start, end)) {
+                return s;
+            }
+        }
+    }
+
+    private static boolean contentEquals(String s, CharSequence chars, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (line.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // The characters matched by \s in a regular expression
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
+
+/**
+ * In-process stand-in for the parts of the Firefly III API used by the
+ * importer, served by the JDK HTTP server on a loopback port.
+ *
+ * Every request except {@code /api/v1/about} is delayed by the configured
+ * latency and fails with a 500 or is throttled with a 429 at the configured
+ * rates. Created transactions are only counted.
+ *
+ * Delay and fault are drawn from the seed, the request and how often the
+ * same request was seen before, not from a shared generator, so the same
+ * request attempt meets the same fault however concurrent requests interleave.
+ */
+class FireflyStandIn implements AutoCloseable {
+
+    static {
+        // Without it small responses wait for delayed ACKs, adding ~40 ms to every request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final List<String[]> accounts = new ArrayList<>();
+    private final long seed;
+    private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+    private final Duration latency;
+    private final Duration jitter;
+    private final double errorRate;
+    private final double throttleRate;
+    private final int retryAfterSeconds;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final AtomicLong transactions = new AtomicLong();
+
+    FireflyStandIn(Duration latency, Duration jitter, double errorRate, double throttleRate, int retryAfterSeconds, long seed)
+            throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.seed = seed;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/v1/about", this::about);
+        server.createContext("/api/v1/accounts", exchange -> faulty(exchange, this::accounts));
+        server.createContext("/api/v1/transactions", exchange -> faulty(exchange, this::transactions));
+    }
+
+    /**
+     * Add an asset account, returned by the account listing in insertion order.
+     */
+    void addAccount(String name, String accountNumber, String iban, String notes) {
+        accounts.add(new String[] {Integer.toString(accounts.size() + 1), name, accountNumber, iban, notes});
+    }
+
+    void start() {
+        server.start();
+    }
+
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    long throttled() {
+        return throttled.sum();
+    }
+
+    long transactions() {
+        return transactions.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).close();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void faulty(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            requests.increment();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            long request = (long) (exchange.getRequestMethod() + " " + exchange.getRequestURI()).hashCode() << 32
+                           | Integer.toUnsignedLong(Arrays.hashCode(body));
+            int attempt = attempts.merge(request, 1, Integer::sum);
+            SplittableRandom random = new SplittableRandom(seed ^ request ^ (long) attempt << 48);
+            try {
+                long delay = latency.toNanos() + (jitter.isZero() ? 0 : (long) (random.nextDouble() * jitter.toNanos()));
+                Thread.sleep(Duration.ofNanos(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            double draw = random.nextDouble();
+            if (draw < throttleRate) {
+                throttled.increment();
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+                send(exchange, 429, "{\"message\":\"Too Many Attempts.\"}");
+            } else if (draw < throttleRate + errorRate) {
+                errors.increment();
+                send(exchange, 500, "{\"message\":\"Internal Server Error\"}");
+            } else {
+                handler.handle(exchange);
+            }
+        }
+    }
+
+    private void about(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            send(exchange, 200, "{\"data\":{\"version\":\"stand-in\",\"api_version\":\"stand-in\","
+                    + "\"php_version\":\"-\",\"os\":\"" + System.getProperty("os.name") + "\"}}");
+        }
+    }
+
+    private void accounts(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        int page = Integer.parseInt(query.getOrDefault("page", "1"));
+        int limit = Integer.parseInt(query.getOrDefault("limit", "50"));
+        if (path.matches("/api/v1/accounts/\\d+/transactions")) {
+            // Nothing was imported before the benchmark
+            send(exchange, 200, page("[]", 0, page, limit));
+            return;
+        }
+        if (!path.equals("/api/v1/accounts") || !exchange.getRequestMethod().equals("GET")) {
+            send(exchange, 404, "{\"message\":\"Resource not found\"}");
+            return;
+        }
+        StringWriter data = new StringWriter();
+        try (JsonGenerator json = JsonSupport.GENERATORS.createGenerator(data)) {
+            json.writeStartArray();
+            for (int i = (page - 1) * limit; i < Math.min(page * limit, accounts.size()); i++) {
+                String[] account = accounts.get(i);
+                json.writeStartObject()
+                    .write("type", "accounts")
+                    .write("id", account[0])
+                    .writeStartObject("attributes")
+                    .write("name", account[1]);
+                writeNullable(json, "account_number", account[2]);
+                writeNullable(json, "iban", account[3]);
+                writeNullable(json, "notes", account[4]);
+                json.writeEnd().writeEnd();
+            }
+            json.writeEnd();
+        }
+        send(exchange, 200, page(data.toString(), accounts.size(), page, limit));
+    }
+
+    private void transactions(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            send(exchange, 405, "{\"message\":\"Method not allowed\"}");
+            return;
+        }
+        long id = transactions.incrementAndGet();
+        send(exchange, 200, "{\"data\":{\"type\":\"transactions\",\"id\":\"" + id + "\"}}");
+    }
+
+    private static String page(String items, int total, int page, int limit) {
+        int totalPages = Math.max(1, (total + limit - 1) / limit);
+        return "{\"data\":" + items + ",\"meta\":{\"pagination\":{\"total\":" + total + ",\"per_page\":" + limit
+                + ",\"current_page\":" + page + ",\"total_pages\":" + totalPages + "}}}";
+    }
+
+    private static void writeNullable(JsonGenerator json, String name, String value) {
+        if (value == null) {
+            json.writeNull(name);
+        } else {
+            json.write(name, value);
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int eq = parameter.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(parameter.substring(0, eq), parameter.substring(eq + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.api+json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
+
+/**
+ * Generates Piraeus unified exports with a given number of rows over a given
+ * number of products, reproducibly for the same seed.
+ *
+ * Besides plain deposits and withdrawals the export contains the pairs the
+ * importer merges into transfers: redistributions between two products and
+ * credit card payments.
+ */
+class SyntheticExport {
+
+    private static final String[][] CATEGORIES = {
+        {"Σούπερ Μάρκετ", "ΑΓΟΡΑ ΑΒ ΒΑΣΙΛΟΠΟΥΛΟΣ"},
+        {"Σούπερ Μάρκετ", "ΑΓΟΡΑ ΣΚΛΑΒΕΝΙΤΗΣ"},
+        {"Διασκέδαση", "CINEMA"},
+        {"Εστιατόρια", "ΤΑΒΕΡΝΑ Ο ΜΙΧΑΛΗΣ"},
+        {"Λογαριασμοί", "ΔΕΗ ΠΛΗΡΩΜΗ ΛΟΓΑΡΙΑΣΜΟΥ"},
+        {"Καύσιμα", "ΠΡΑΤΗΡΙΟ ΚΑΥΣΙΜΩΝ"},
+        {"Μισθός", "ΜΙΣΘΟΔΟΣΙΑ"},
+        {"Μισθός", "ΤΟΚΟΙ"},
+    };
+
+    /**
+     * A product as printed in the export, and the account fields that match it.
+     */
+    record Product(String label, String accountNumber, String iban, String notes) {
+    }
+
+    private final List<Product> products = new ArrayList<>();
+    private final long seed;
+
+    SyntheticExport(int productCount, long seed) {
+        this.seed = seed;
+        for (int i = 0; i < productCount; i++) {
+            switch (i % 4) {
+                // Credit cards, only mentioned in the notes of their account
+                case 3 -> {
+                    String card = String.format("4111 2222 3333 %04d", i);
+                    products.add(new Product(card + " (Visa)", null, null, "Card " + card.replace(" ", "")));
+                }
+                case 2 -> {
+                    String iban = String.format("GR16011012500000%011d", i);
+                    products.add(new Product(iban + " (Όψεως)", null, iban, null));
+                }
+                default -> {
+                    String number = String.format("5001%09d", i);
+                    products.add(new Product(number.substring(0, 4) + " " + number.substring(4, 8) + " " + number.substring(8)
+                            + " (Ταμιευτήριο)", number, null, null));
+                }
+            }
+        }
+    }
+
+    List<Product> products() {
+        return products;
+    }
+
+    void write(Path file, int rows) throws IOException {
+        Random random = new Random(seed);
+        LocalDate from = LocalDate.of(2024, 1, 1);
+        LocalDate to = from.plusDays(Math.max(rows / 50, 30));
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("Πειραιώς e-banking\n");
+            out.write("Περίοδος: " + date(from) + " - " + date(to) + "\n\n");
+            out.write("Κατηγορία\tΠεριγραφή Συναλλαγής\tΗμερομηνία Καταχώρησης\tΑριθμός Προϊόντος\tΠοσό\n");
+            int written = 0;
+            while (written < rows) {
+                LocalDate date = from.plusDays((long) written * (to.toEpochDay() - from.toEpochDay()) / rows);
+                long amount = 100 + random.nextInt(100_000);
+                int kind = random.nextInt(100);
+                if (rows - written >= 2 && products.size() >= 2 && kind < 5) {
+                    int source = random.nextInt(products.size());
+                    int destination = (source + 1 + random.nextInt(products.size() - 1)) % products.size();
+                    row(out, "Ανακατανομή", "ΜΕΤΑΦΟΡΑ", date, products.get(destination), amount);
+                    row(out, "Ανακατανομή", "ΜΕΤΑΦΟΡΑ", date, products.get(source), -amount);
+                    written += 2;
+                } else if (rows - written >= 2 && products.size() >= 4 && kind < 8) {
+                    int card = 3 + 4 * random.nextInt(products.size() / 4);
+                    int source = card - 1 - random.nextInt(3);
+                    row(out, "Λογαριασμοί", "ΠΛΗΡΩΜΗ ΚΑΡΤΑΣ", date, products.get(source), -amount);
+                    row(out, "Πληρωμές", "VISA (ΠΛΗΡΩΜΗ - ΕΥΧΑΡΙΣΤΟΥΜΕ)", date, products.get(card), amount);
+                    written += 2;
+                } else {
+                    String[] category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                    boolean income = "Μισθός".equals(category[0]);
+                    row(out, category[0], category[1], date, products.get(random.nextInt(products.size())),
+                            income ? amount * 10 : -amount);
+                    written++;
+                }
+            }
+            out.write("Σύνολο κινήσεων: " + rows + "\n");
+        }
+    }
+
+    private static void row(BufferedWriter out, String category, String description, LocalDate date, Product product,
+                            long amount) throws IOException {
+        out.write(category + "\t" + description + "\t" + date(date) + "\t" + product.label() + "\t" + amount(amount) + "\n");
+    }
+
+    private static String date(LocalDate date) {
+        return date.getDayOfMonth() + "/" + date.getMonthValue() + "/" + date.getYear();
+    }
+
+    // Greek formatting of minor units, e.g. -1.234,56 €
+    private static String amount(long minorUnits) {
+        String units = String.format(Locale.ROOT, "%,d", Math.abs(minorUnits) / 100).replace(',', '.');
+        return (minorUnits < 0 ? "-" : "") + units + String.format(",%02d €", Math.abs(minorUnits) % 100);
+    }
+}
+
+@Command(name = "test-auth", description = "Test authentication with Firefly III API")
+class TestAuth extends ReusableOptions implements Callable<Integer> {
+
+    @Override
+    public Integer call() {
+        System.out.println("Testing authentication with Firefly III instance at: " + fireflyUrl);
+        
+        try {
+            if (authenticate()) {
+                System.out.println("✓ Authentication successful!");
+                return 0;
+            } else {
+                System.err.println("✗ Authentication failed!");
+                return 1;
+            }
+        } catch (Exception e) {
+            System.err.println("Error during authentication: " + e.getMessage());
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private boolean authenticate() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/api/v1/about");
+        int status = response.statusCode();
+        String responseBody = response.body();
+
+        if (status == 200 && responseBody != null && !responseBody.isEmpty()) {
+            Jsonb jsonb = JsonSupport.jsonb();
+            try {
+                AboutResponse about = jsonb.fromJson(responseBody, AboutResponse.class);
+                if (about != null && about.data != null) {
+                    AboutData data = about.data;
+                    System.out.println("\nFirefly III Instance Information:");
+                    if (data.version != null) System.out.println("  Version: " + data.version);
+                    if (data.api_version != null) System.out.println("  API Version: " + data.api_version);
+                    if (data.php_version != null) System.out.println("  PHP Version: " + data.php_version);
+                    if (data.os != null) System.out.println("  OS: " + data.os);
+                }
+                return true;
+            } catch (Exception e) {
+                System.err.println("Failed to parse JSON response: " + e.getMessage());
+                return false;
+            }
+        } else {
+            System.err.println("HTTP Error: " + status);
+            if (responseBody != null && !responseBody.isEmpty()) {
+                System.err.println("Response: " + responseBody);
+            }
+            return false;
+        }
+    }
+
+    // JSON-B mapping classes for the /api/v1/about response
+    public static class AboutResponse {
+        public AboutData data;
+    }
+
+    public static class AboutData {
+        public String version;
+        public String api_version;
+        public String php_version;
+        public String os;
+    }
+}
+
+/**
+ * Options of an import, shared by the commands that import exports.
+ */
+@Command()
+class ImportOptions extends ReusableOptions
+{
+    @Option(names = {"--dry-run"}, description = "Parse the file but do not import into Firefly III")
+    boolean dryRun = false;
+
+    @Option(names = {"--cache-dir"},
+            defaultValue = "${sys:user.home}/.cache/firefly-importer",
+            description = "Directory of the persistent account cache (default: ${DEFAULT-VALUE})")
+    Path cacheDir;
+
+    @Option(names = {"--cache-ttl"},
+            defaultValue = "24",
+            description = "Hours before a cached account lookup expires (default: ${DEFAULT-VALUE})")
+    long cacheTtlHours;
+
+    @Option(names = {"--refresh-accounts"}, description = "Ignore the persistent account cache and rebuild it from Firefly III")
+    boolean refreshAccounts = false;
+
+    @Option(names = {"--resume"}, description = "Skip transactions recorded in the import journals of the files by an earlier run")
+    boolean resume = false;
+
+    @Option(names = {"--skip-existing"}, description = "Skip transactions that already exist in Firefly III (same date, amount, accounts and description)")
+    boolean skipExisting = false;
+
+    @Option(names = {"--stream"}, description = "Read, parse and submit the files as streams, instead of loading them into memory first")
+    boolean stream = false;
+
+    @Option(names = {"--metrics-out"},
+            description = "Write import metrics to this file, in the Prometheus textfile format if it ends in .prom, as JSON otherwise")
+    Path metricsOut;
+
+    @Option(names = {"--pairing-window"},
+            defaultValue = "64",
+            description = "Number of rows the two legs of a transfer may be apart (default: ${DEFAULT-VALUE})")
+    int pairingWindow;
+
+    @Option(names = {"-c", "--concurrency"},
+            defaultValue = "1",
+            description = "Maximum number of transactions submitted in parallel (default: ${DEFAULT-VALUE})")
+    int concurrency;
+
+    @Option(names = {"--create-accounts"}, description = "Create an asset account for every product without a matching account, instead of skipping its rows")
+    boolean createAccounts = false;
+
+    /**
+     * Copy the options to another command, e.g. one run on behalf of this one.
+     * Every option the target shares with this command is copied, found through
+     * the picocli model rather than listed here, so options added later cannot
+     * be forgotten.
+     */
+    void copyTo(ImportOptions target) {
+        CommandSpec source = CommandSpec.forAnnotatedObject(this);
+        for (OptionSpec option : CommandSpec.forAnnotatedObject(target).options()) {
+            OptionSpec shared = source.findOption(option.longestName());
+            if (shared != null) {
+                option.setValue(shared.getValue());
+            }
+        }
+    }
+}
+
+@Command(name = "import-piraeus-data", description = "Import piraeus unified data into Firefly III (Not yet implemented)")
+class PiraeusImporter extends ImportOptions implements Callable<Integer> {
+
+    private static final int PIRAEUS_HEADER_COLUMNS = 5;
+
+    private static final String DEFAULT_ACCOUNT = "(no name)";
+
+    // Copies of each transaction content committed by earlier runs according to the journals, with --resume
+    private final Map<String, Integer> committed = new HashMap<>();
+
+    // Copies of each transaction content accounted for so far, over all files; null for a single file
+    private Map<String, Integer> accounted;
+
+    private int skipped;
+
+    private int duplicates;
+
+    // Transactions already in Firefly III, with --skip-existing
+    private ExistingTransactions existing;
+
+    private int skippedExisting;
+
+    // Request bodies are written here before being copied out, used by one thread at a time
+    private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream(1024);
+
+    // Maximum number of items buffered between two stages of the streaming pipeline
+    private static final int PIPELINE_CAPACITY = 1024;
+
+    // Cache productNumber -> accountId (NO_ACCOUNT means not found), shared by the files parsed in parallel
+    private final Map<String, String> accountCache = new ConcurrentHashMap<>();
+
+    private static final String NO_ACCOUNT = "";
+
+    // Serializes account resolution, so that misses in files parsed in parallel share one sweep
+    private final ReentrantLock resolveLock = new ReentrantLock();
+
+    // All accounts of the Firefly III instance, fetched on first use
+    private AccountIndex accountIndex;
+
+    // Lookups persisted across runs, opened on first use
+    private AccountCache persistentCache;
+
+    // Raw product field (with its friendly name) by product number, with --create-accounts
+    private final Map<String, String> productNames = new ConcurrentHashMap<>();
+
+    private static final int ACCOUNT_CREATION_CONCURRENCY = 8;
+
+    @Parameters(paramLabel = "<data-file>", arity = "1..*",
+                description = "Data files to import; a directory stands for the files in it, and a quoted glob such as 'exports/*.txt' for the files matching it")
+    List<String> dataFiles;
+
+    @Option(names = {"--prepare"},
+            description = "Write the resolved transactions to this NDJSON file, gzip compressed if it ends in .gz, instead of importing them; see the replay command")
+    Path prepareFile;
+
+    // Receives the request bodies with --prepare
+    private OutputStream prepared;
+
+    private int preparedCount;
+
+    /**
+     * Import data into Firefly III from a tab separated values file generated
+     * through Piraeus e-banking (unified transactions view).
+     *
+     * The file is expected to have some info in the first lines. Then a header
+     * line followed by data lines. And finally an ending line with some
+     * additional info.
+     * 
+     * The expected header columns (in Greek) are:
+     * Κατηγορία	Περιγραφή Συναλλαγής (είδος)	Ημερομηνία Καταχώρησης	Αριθμός Προϊόντος	Ποσό	
+     * 
+     * @return Exit code
+     */
+    @Override
+    public Integer call() {
+        List<Path> paths;
+        try {
+            paths = dataFilePaths();
+        } catch (IOException e) {
+            System.err.println("✗ Error reading file: " + e.getMessage());
+            return 1;
+        }
+        return paths == null ? 1 : importFiles(paths);
+    }
+
+    /**
+     * Import the given files in one run and report its metrics. May be called
+     * again on the same instance, which keeps the HTTP client, the request
+     * scheduler and the account index warm between runs.
+     *
+     * @return Exit code
+     */
+    int importFiles(List<Path> paths) {
+        int exitCode = runImport(paths);
+        System.out.println(metrics.summary());
+        if (metricsOut != null) {
+            try {
+                metrics.write(metricsOut);
+            } catch (IOException e) {
+                System.err.println("Warning: could not write metrics to " + metricsOut + ": " + e.getMessage());
+            }
+        }
+        return exitCode;
+    }
+
+    private int runImport(List<Path> paths) {
+        List<InputFile> files = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            System.out.println("Importing data from: " + path);
+            files.add(new InputFile(path));
+        }
+        if (concurrency < 1) {
+            System.err.println("✗ Concurrency must be at least 1");
+            return 1;
+        }
+        if (pairingWindow < 1) {
+            System.err.println("✗ Pairing window must be at least 1");
+            return 1;
+        }
+        if (prepareFile != null && dryRun) {
+            System.err.println("✗ --prepare cannot be combined with --dry-run");
+            return 1;
+        }
+        if (skipExisting && stream) {
+            System.err.println("✗ --skip-existing needs the date range of the whole file and cannot be combined with --stream");
+            return 1;
+        }
+
+        committed.clear();
+        accounted = files.size() > 1 ? new HashMap<>() : null;
+        skipped = 0;
+        duplicates = 0;
+        existing = null;
+        skippedExisting = 0;
+        preparedCount = 0;
+        try {
+            for (InputFile file : files) {
+                Path journalFile = ImportJournal.fileFor(file.path);
+                if (resume) {
+                    int count = ImportJournal.readCommitted(journalFile, committed);
+                    System.out.println("Resuming: " + count + " transactions already imported according to " + journalFile);
+                }
+                if (submitting()) {
+                    try {
+                        file.journal = new ImportJournal(journalFile);
+                    } catch (IOException e) {
+                        // E.g. a read-only directory, which should not prevent the import itself
+                        System.err.println("Warning: could not open the import journal " + journalFile + ", importing without it: "
+                                           + e.getMessage());
+                    }
+                }
+            }
+            if (prepareFile != null) {
+                return prepare(files);
+            }
+            return stream ? importStreaming(files) : importAll(files);
+        } catch (IOException e) {
+            System.err.println("✗ Error reading file: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            for (InputFile file : files) {
+                if (file.journal != null) {
+                    try {
+                        file.journal.close();
+                    } catch (IOException e) {
+                        System.err.println("Warning: could not close the import journal of " + file.path + ": " + e.getMessage());
+                    }
+                    file.journal = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether transactions are submitted to Firefly III, rather than only
+     * printed or prepared.
+     */
+    private boolean submitting() {
+        return !dryRun && prepareFile == null;
+    }
+
+    /**
+     * Run the import with the request bodies going to the --prepare file, one
+     * per line, instead of to Firefly III. The file only replaces an earlier
+     * one once complete.
+     */
+    private int prepare(List<InputFile> files) throws IOException, InterruptedException {
+        Path dir = prepareFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, prepareFile.getFileName().toString(), ".tmp");
+        try {
+            int exitCode;
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+            if (prepareFile.getFileName().toString().endsWith(".gz")) {
+                out = new GZIPOutputStream(out, 1 << 16);
+            }
+            try (OutputStream o = out) {
+                prepared = o;
+                exitCode = stream ? importStreaming(files) : importAll(files);
+            } finally {
+                prepared = null;
+            }
+            if (exitCode == 0) {
+                Files.move(tmp, prepareFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                System.out.println("✓ Wrote " + preparedCount + " transactions to " + prepareFile);
+            }
+            return exitCode;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * One of the files of the import, with the state kept per file.
+     */
+    private final class InputFile {
+        final Path path;
+        // Splits and converts data lines, used by one thread at a time
+        final RowTokenizer tokenizer = new RowTokenizer();
+        // Number of occurrences of each transaction content seen so far, to tell identical transactions apart.
+        // For a single file only the contents in the journals are counted, so that a stream keeps no per-row state
+        final Map<String, Integer> occurrences = new HashMap<>();
+        // Journal of the committed transactions, null in dry-run mode or if it could not be opened
+        ImportJournal journal;
+        TransactionBuilder builder;
+        // Only used when importing the whole file at once
+        List<String> lines;
+        int headerIndex;
+        Set<String> productNumbers;
+        List<Transaction> transactions;
+
+        InputFile(Path path) {
+            this.path = path;
+        }
+
+        String name() {
+            return path.getFileName().toString();
+        }
+    }
+
+    /**
+     * Expand the data file arguments: a directory stands for the regular files
+     * directly in it, an argument with glob characters that is not an existing
+     * path for the files matching it. Journals and hidden files are left out of
+     * both.
+     *
+     * @return The files in argument order without duplicates, null if an argument matched nothing
+     */
+    private List<Path> dataFilePaths() throws IOException {
+        Set<Path> paths = new LinkedHashSet<>();
+        for (String argument : dataFiles) {
+            Path path = Path.of(argument);
+            List<Path> matches;
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    matches = files.filter(PiraeusImporter::isDataFile).sorted().toList();
+                }
+            } else if (Files.exists(path)) {
+                matches = List.of(path);
+            } else if (isGlob(argument)) {
+                matches = glob(argument);
+            } else {
+                System.err.println("✗ File not found: " + argument);
+                return null;
+            }
+            if (matches.isEmpty()) {
+                System.err.println("✗ No data files found in: " + argument);
+                return null;
+            }
+            for (Path match : matches) {
+                paths.add(match.normalize());
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    static boolean isDataFile(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && !name.startsWith(".") && !name.endsWith(".journal");
+    }
+
+    private static boolean isGlob(String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            if ("*?[{".indexOf(argument.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The data files matching a glob, walking only below the directory part of
+     * the glob before its first glob character, sorted by path.
+     */
+    private static List<Path> glob(String glob) throws IOException {
+        int first = 0;
+        while ("*?[{".indexOf(glob.charAt(first)) < 0) {
+            first++;
+        }
+        int separator = glob.lastIndexOf('/', first);
+        Path base = separator < 0 ? Path.of("") : Path.of(separator == 0 ? "/" : glob.substring(0, separator));
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        String rest = glob.substring(separator + 1);
+        int depth = rest.contains("**") ? Integer.MAX_VALUE : (int) rest.chars().filter(c -> c == '/').count() + 1;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        try (Stream<Path> files = Files.find(base, depth, (path, attributes) -> matcher.matches(path))) {
+            return files.filter(PiraeusImporter::isDataFile).sorted().toList();
+        }
+    }
+
+    /**
+     * Work on one file, done for all files in parallel.
+     */
+    private interface FileTask {
+        /**
+         * @return false after printing an error
+         */
+        boolean run(InputFile file) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Run a task for every file, each on its own virtual thread.
+     *
+     * @return false if the task failed for any file
+     */
+    private static boolean forEachFile(List<InputFile> files, FileTask task) throws IOException, InterruptedException {
+        List<Future<Boolean>> results = new ArrayList<>(files.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (InputFile file : files) {
+                results.add(executor.submit(() -> task.run(file)));
+            }
+        }
+        boolean succeeded = true;
+        for (Future<Boolean> result : results) {
+            try {
+                succeeded &= result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                if (e.getCause() instanceof InterruptedException interrupted) {
+                    throw interrupted;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Read and parse all files, resolve all products at once and only then
+     * submit the transactions. Files are read and parsed in parallel, and
+     * submitted one after the other in argument order.
+     */
+    private int importAll(List<InputFile> files) throws IOException, InterruptedException {
+        boolean loaded;
+        Metrics.Phase read = metrics.phase("read");
+        try {
+            loaded = forEachFile(files, this::load);
+        } finally {
+            read.end();
+        }
+        if (!loaded) {
+            return 1;
+        }
+
+        // Resolve the products of all data lines of all files in one sweep over the accounts
+        Set<String> productNumbers = new LinkedHashSet<>();
+        for (InputFile file : files) {
+            productNumbers.addAll(file.productNumbers);
+            file.productNumbers = null;
+        }
+        try {
+            resolveProducts(productNumbers);
+        } catch (IOException e) {
+            System.err.println("✗ Could not load accounts from Firefly III: " + Objects.requireNonNullElse(e.getMessage(), e.toString()));
+            return 1;
+        }
+
+        Metrics.Phase parse = metrics.phase("parse");
+        try {
+            forEachFile(files, this::parse);
+        } finally {
+            parse.end();
+        }
+        int dataCount = 0;
+        int transactionCount = 0;
+        for (InputFile file : files) {
+            dataCount += file.builder.dataCount;
+            transactionCount += file.builder.transactionCount;
+        }
+        metrics.add("rows", dataCount);
+        metrics.add("transactions_prepared", transactionCount);
+
+        System.out.println("\n✓ Successfully parsed " + dataCount + " data rows");
+        System.out.println("✓ Prepared " + transactionCount + " transactions for import");
+        if (skipExisting) {
+            Metrics.Phase phase = metrics.phase("existing");
+            try {
+                existing = loadExisting(files);
+            } catch (IOException e) {
+                System.err.println("✗ Could not fetch existing transactions from Firefly III: " + Objects.requireNonNullElse(e.getMessage(), e.toString()));
+                return 1;
+            } finally {
+                phase.end();
+            }
+        }
+        // Commit transactions to Firefly III, keeping up to `concurrency` requests in flight
+        Submitter<Pending> submitter = new Submitter<>(this, "/api/v1/transactions", concurrency, this::journal, this::report);
+        Metrics.Phase submit = metrics.phase("submit");
+        try (submitter) {
+            for (InputFile file : files) {
+                for (Transaction t : file.transactions) {
+                    submit(submitter, file, t);
+                }
+                file.transactions = null;
+            }
+        } finally {
+            submit.end();
+        }
+        return submitting() ? summarize(submitter) : 0;
+    }
+
+    /**
+     * Read a whole file, find its header and collect the product numbers of its
+     * data lines.
+     */
+    private boolean load(InputFile file) throws IOException {
+        List<String> lines = Files.readAllLines(file.path);
+        if (lines.isEmpty()) {
+            System.err.println("✗ File is empty: " + file.path);
+            return false;
+        }
+
+        // Skip initial info lines until we find the header
+        int headerIndex = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (isHeader(lines.get(i))) {
+                headerIndex = i;
+                break;
+            }
+        }
+
+        if (headerIndex == -1) {
+            System.err.println("✗ Could not find expected header line in " + file.path);
+            return false;
+        }
+        if (!checkHeader(file, lines.get(headerIndex))) {
+            return false;
+        }
+
+        Set<String> productNumbers = new LinkedHashSet<>();
+        for (int i = headerIndex + 1; i < lines.size(); i++) {
+            int fieldCount = file.tokenizer.tokenize(lines.get(i));
+            if (fieldCount == 0) continue;
+            if (fieldCount != PIRAEUS_HEADER_COLUMNS) break;
+            productNumbers.add(productNumber(file.tokenizer));
+        }
+        file.lines = lines;
+        file.headerIndex = headerIndex;
+        file.productNumbers = productNumbers;
+        return true;
+    }
+
+    /**
+     * Turn the data lines of a loaded file into transactions.
+     */
+    private boolean parse(InputFile file) throws IOException, InterruptedException {
+        List<String> lines = file.lines;
+        List<Transaction> transactions = new ArrayList<>(lines.size() - file.headerIndex - 1);
+        file.builder = new TransactionBuilder(pairingWindow, transactions::add);
+        // Process data lines (skip header and info lines)
+        for (int i = file.headerIndex + 1; i < lines.size(); i++) {
+            int fieldCount = file.tokenizer.tokenize(lines.get(i));
+            if (fieldCount == 0) continue;
+            if (fieldCount != PIRAEUS_HEADER_COLUMNS) {
+                // Likely the ending info line
+                break;
+            }
+
+            Row row = parseRow(file.tokenizer, lines.get(i));
+            if (row != null) {
+                file.builder.add(row);
+            }
+        }
+        file.builder.finish();
+        file.lines = null;
+        file.transactions = transactions;
+        return true;
+    }
+
+    /**
+     * A prepared transaction and the file it came from.
+     */
+    private record Prepared(InputFile file, Transaction transaction) {
+    }
+
+    /**
+     * Import the files through a pipeline of stages connected by bounded pipes:
+     * per file reading, row parsing (including account resolution) and transfer
+     * pairing, and one submission stage shared by all files. Only a bounded
+     * number of lines and transactions is held in memory at any time, and
+     * submission starts as soon as the first transaction is ready.
+     */
+    private int importStreaming(List<InputFile> files) throws IOException, InterruptedException {
+        List<BufferedReader> readers = new ArrayList<>(files.size());
+        try {
+            for (InputFile file : files) {
+                BufferedReader reader = Files.newBufferedReader(file.path, StandardCharsets.UTF_8);
+                readers.add(reader);
+                if (!skipToHeader(file, reader)) {
+                    return 1;
+                }
+            }
+
+            Pipe<Prepared> transactions = new Pipe<>(PIPELINE_CAPACITY);
+            // The last file to finish pairing closes the shared pipe
+            AtomicInteger pairing = new AtomicInteger(files.size());
+            Submitter<Pending> submitter = new Submitter<>(this, "/api/v1/transactions", concurrency, this::journal, this::report);
+
+            List<Future<Void>> stages = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int f = 0; f < files.size(); f++) {
+                    InputFile file = files.get(f);
+                    BufferedReader reader = readers.get(f);
+                    Pipe<String> lines = new Pipe<>(PIPELINE_CAPACITY);
+                    Pipe<Row> rows = new Pipe<>(PIPELINE_CAPACITY);
+                    file.builder = new TransactionBuilder(pairingWindow, t -> transactions.put(new Prepared(file, t)));
+
+                    stages.add(executor.submit(() -> {
+                        Metrics.Phase phase = metrics.phase("read");
+                        try {
+                            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                                lines.put(line);
+                            }
+                        } finally {
+                            phase.end();
+                            lines.close();
+                        }
+                        return null;
+                    }));
+                    stages.add(executor.submit(() -> {
+                        Metrics.Phase phase = metrics.phase("parse");
+                        try {
+                            boolean ended = false;
+                            for (String line = lines.take(); line != null; line = lines.take()) {
+                                if (ended) continue;
+                                int fieldCount = file.tokenizer.tokenize(line);
+                                if (fieldCount == 0) continue;
+                                if (fieldCount != PIRAEUS_HEADER_COLUMNS) {
+                                    // Likely the ending info line, drain the rest
+                                    ended = true;
+                                    continue;
+                                }
+                                Row row = parseRow(file.tokenizer, line);
+                                if (row != null) {
+                                    rows.put(row);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            lines.cancel();
+                            throw e;
+                        } finally {
+                            phase.end();
+                            rows.close();
+                        }
+                        return null;
+                    }));
+                    stages.add(executor.submit(() -> {
+                        Metrics.Phase phase = metrics.phase("pair");
+                        try {
+                            for (Row row = rows.take(); row != null; row = rows.take()) {
+                                file.builder.add(row);
+                            }
+                            file.builder.finish();
+                        } catch (Throwable e) {
+                            rows.cancel();
+                            throw e;
+                        } finally {
+                            phase.end();
+                            if (pairing.decrementAndGet() == 0) {
+                                transactions.close();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+
+                Metrics.Phase submit = metrics.phase("submit");
+                try (submitter) {
+                    for (Prepared p = transactions.take(); p != null; p = transactions.take()) {
+                        submit(submitter, p.file(), p.transaction());
+                    }
+                } catch (Throwable e) {
+                    transactions.cancel();
+                    throw e;
+                } finally {
+                    submit.end();
+                }
+            }
+
+            for (Future<Void> stage : stages) {
+                try {
+                    stage.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        // Stopped because a stage downstream of it failed, which is reported instead
+                        continue;
+                    }
+                    if (e.getCause() instanceof IOException io) {
+                        System.err.println("✗ Import aborted: " + Objects.requireNonNullElse(io.getMessage(), io.toString()));
+                        return 1;
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+
+            int dataCount = 0;
+            int transactionCount = 0;
+            for (InputFile file : files) {
+                dataCount += file.builder.dataCount;
+                transactionCount += file.builder.transactionCount;
+            }
+            metrics.add("rows", dataCount);
+            metrics.add("transactions_prepared", transactionCount);
+            System.out.println("\n✓ Successfully parsed " + dataCount + " data rows");
+            System.out.println("✓ Prepared " + transactionCount + " transactions for import");
+            return submitting() ? summarize(submitter) : 0;
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Skip the initial info lines of a file up to and including its header.
+     *
+     * @return false after printing an error if there is no valid header
+     */
+    private static boolean skipToHeader(InputFile file, BufferedReader reader) throws IOException {
+        String headerLine = null;
+        boolean empty = true;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            empty = false;
+            if (isHeader(line)) {
+                headerLine = line;
+                break;
+            }
+        }
+        if (empty) {
+            System.err.println("✗ File is empty: " + file.path);
+            return false;
+        }
+        if (headerLine == null) {
+            System.err.println("✗ Could not find expected header line in " + file.path);
+            return false;
+        }
+        return checkHeader(file, headerLine);
+    }
+
+    private static boolean isHeader(String line) {
+        return line.contains("Κατηγορία") && line.contains("Περιγραφή Συναλλαγής");
+    }
+
+    private static boolean checkHeader(InputFile file, String headerLine) {
+        String[] headers = headerLine.split("\t");
+        if (headers.length != PIRAEUS_HEADER_COLUMNS) {
+            System.err.println("✗ Header line of " + file.path + " does not contain expected number of columns");
+            System.err.println("✗ Found " + headers.length + " columns, expected " + PIRAEUS_HEADER_COLUMNS);
+            return false;
+        }
+        System.out.println("Found header with " + headers.length + " columns in " + file.name());
+        return true;
+    }
+
+    /**
+     * A data line of the export, with its product already resolved to a
+     * Firefly III account.
+     *
+     * @param amount Amount in minor units (cents)
+     * @param accountId Account of the product, null if none matched
+     */
+    record Row(String line, String category, String description, String postingDate, String productNumber,
+                       long amount, String accountId) {
+    }
+
+    /**
+     * Convert the data line last passed to the given tokenizer and resolve its
+     * product number.
+     *
+     * @return The row, or null if the line could not be converted
+     */
+    private Row parseRow(RowTokenizer tokenizer, String line) throws IOException, InterruptedException {
+        long amount;
+        try {
+            amount = tokenizer.amount(4);
+        } catch (NumberFormatException e) {
+            System.err.println("✗ Skipping row: " + e.getMessage());
+            return null;
+        }
+        String productNumber = productNumber(tokenizer);
+
+        // Use productNumber to find the corresponding account in Firefly III
+        String accountId = findAccountIdForProduct(productNumber);
+        return new Row(line, tokenizer.internedString(0), tokenizer.string(1), tokenizer.isoDate(2),
+                       productNumber, amount, accountId);
+    }
+
+    /**
+     * The product number of the data line last passed to the given tokenizer.
+     * With --create-accounts, the raw field is kept for naming the account.
+     */
+    private String productNumber(RowTokenizer tokenizer) {
+        String productNumber = tokenizer.productNumber(3);
+        if (createAccounts && !productNames.containsKey(productNumber)) {
+            productNames.putIfAbsent(productNumber, tokenizer.string(3));
+        }
+        return productNumber;
+    }
+
+    /**
+     * Receives the transactions prepared by a {@link TransactionBuilder}.
+     */
+    interface TransactionSink {
+        void accept(Transaction transaction) throws InterruptedException;
+    }
+
+    /**
+     * What a row may be paired with: card payments pair with any other row,
+     * redistributions with redistributions and business rows.
+     */
+    private enum LegKind {
+        PAYMENT, REDISTRIBUTION, BUSINESS, OTHER;
+
+        static LegKind of(Row row) {
+            if (row.description().contains("(ΠΛΗΡΩΜΗ - ΕΥΧΑΡΙΣΤΟΥΜΕ)")) {
+                return PAYMENT;
+            } else if ("Ανακατανομή".equals(row.category())) {
+                return REDISTRIBUTION;
+            } else if ("Επαγγελματικά".equals(row.category())) {
+                return BUSINESS;
+            }
+            return OTHER;
+        }
+
+        boolean isMarker() {
+            return this == PAYMENT || this == REDISTRIBUTION;
+        }
+
+        boolean pairsWith(LegKind other) {
+            if (this == PAYMENT || other == PAYMENT) {
+                return this != other;
+            }
+            return (this == REDISTRIBUTION && other != OTHER) || (other == REDISTRIBUTION && this != OTHER);
+        }
+    }
+
+    /**
+     * A row in the pairing window, and the transaction it turned into once
+     * done (null for the later leg of a transfer).
+     */
+    private static final class Leg {
+        final long sequence;
+        final Row row;
+        final LegKind kind;
+        Transaction transaction;
+        boolean done;
+
+        Leg(long sequence, Row row) {
+            this.sequence = sequence;
+            this.row = row;
+            this.kind = LegKind.of(row);
+        }
+
+        boolean pairsWith(Leg other) {
+            return kind.pairsWith(other.kind)
+                    && (row.amount() < 0) != (other.row.amount() < 0)
+                    && row.amount() != 0
+                    && !row.accountId().equals(other.row.accountId());
+        }
+    }
+
+    private record LegKey(String postingDate, long absoluteAmount) {
+    }
+
+    /**
+     * Turns rows into transactions, merging the two legs of redistributions and
+     * credit card payments into transfers.
+     *
+     * Rows wait in a window of {@code window} rows for the other leg of a
+     * transfer, looked up by posting date and absolute amount, so the legs do
+     * not need to be adjacent. Two rows are the legs of a transfer if they have
+     * opposite amounts on the same date in different accounts, and either one
+     * is a credit card payment, or one is a redistribution and the other a
+     * redistribution or business row. If several rows qualify, a payment or
+     * redistribution row wins over other rows, then the nearest row wins. Rows
+     * leaving the window unpaired become withdrawals or deposits.
+     *
+     * Transactions are handed over in the order of their rows, a transfer
+     * taking the place of its earlier leg, so output lags the input by up to
+     * the window.
+     */
+    class TransactionBuilder {
+        private final int window;
+        private final TransactionSink sink;
+        // The rows of the window, in input order
+        private final ArrayDeque<Leg> legs = new ArrayDeque<>();
+        // The unpaired rows of the window by posting date and absolute amount
+        private final Map<LegKey, List<Leg>> unpaired = new HashMap<>();
+        private long sequence;
+        int dataCount;
+        int transactionCount;
+
+        TransactionBuilder(int window, TransactionSink sink) {
+            this.window = window;
+            this.sink = sink;
+        }
+
+        void add(Row row) throws InterruptedException {
+            String accountId = row.accountId();
+            if (accountId == null) {
+                // Only left for products without an account with --create-accounts off, or if creating it failed
+                System.out.println("No account found for product " + row.productNumber());
+                return;
+            }
+
+            dataCount++;
+
+            Leg leg = new Leg(sequence++, row);
+            legs.addLast(leg);
+            LegKey key = new LegKey(row.postingDate(), Math.abs(row.amount()));
+            List<Leg> candidates = unpaired.get(key);
+            Leg match = null;
+            if (candidates != null) {
+                for (Leg candidate : candidates) {
+                    if (leg.pairsWith(candidate) && (match == null
+                            || candidate.kind.isMarker() && !match.kind.isMarker()
+                            || candidate.kind.isMarker() == match.kind.isMarker() && candidate.sequence > match.sequence)) {
+                        match = candidate;
+                    }
+                }
+            }
+            if (match != null) {
+                candidates.remove(match);
+                if (candidates.isEmpty()) {
+                    unpaired.remove(key);
+                }
+                match.transaction = transfer(match, leg);
+                match.done = true;
+                leg.done = true;
+            } else {
+                unpaired.computeIfAbsent(key, k -> new ArrayList<>(2)).add(leg);
+            }
+            handOver(sequence - window);
+        }
+
+        /**
+         * Hand over the transactions of all rows still in the window.
+         */
+        void finish() throws InterruptedException {
+            handOver(Long.MAX_VALUE);
+        }
+
+        /**
+         * Hand over the transactions at the front of the window, giving up on
+         * pairing rows older than the given sequence number.
+         */
+        private void handOver(long before) throws InterruptedException {
+            while (!legs.isEmpty()) {
+                Leg head = legs.peekFirst();
+                if (!head.done) {
+                    if (head.sequence >= before) {
+                        return;
+                    }
+                    expire(head);
+                }
+                legs.removeFirst();
+                if (head.transaction != null) {
+                    sink.accept(head.transaction);
+                    transactionCount++;
+                }
+            }
+        }
+
+        private void expire(Leg leg) {
+            Row row = leg.row;
+            LegKey key = new LegKey(row.postingDate(), Math.abs(row.amount()));
+            List<Leg> candidates = unpaired.get(key);
+            candidates.remove(leg);
+            if (candidates.isEmpty()) {
+                unpaired.remove(key);
+            }
+            long amount = row.amount();
+            String type = amount < 0 ? "withdrawal" : "deposit";
+            if (leg.kind.isMarker()) {
+                System.out.println("Warning: Unmatched redistribution entry, importing it as a " + type + ":");
+                System.out.println("  " + row.category() + " " + row.description() + " " + row.postingDate() + " "
+                        + row.productNumber() + " " + Utils.formatMinorUnits(amount));
+            }
+            leg.transaction = new Transaction(
+                type,
+                row.postingDate(),
+                Math.abs(amount),
+                row.description(),
+                amount < 0 ? row.accountId() : null,
+                amount < 0 ? null : row.accountId(),
+                row.category()
+            );
+            leg.done = true;
+        }
+
+        /**
+         * Merge two legs in a transfer from the account of the negative leg to
+         * the account of the positive one. The description is the one of the
+         * card payment leg, or of the later leg.
+         */
+        private Transaction transfer(Leg earlier, Leg later) {
+            Row negative = earlier.row.amount() < 0 ? earlier.row : later.row;
+            Row positive = negative == earlier.row ? later.row : earlier.row;
+            return new Transaction(
+                "transfer",
+                later.row.postingDate(),
+                Math.abs(later.row.amount()),
+                earlier.kind == LegKind.PAYMENT ? earlier.row.description() : later.row.description(),
+                negative.accountId(),
+                positive.accountId(),
+                "Ανακατανομή"
+            );
+        }
+    }
+
+    /**
+     * Write the request body for a transaction straight into the reusable
+     * payload buffer.
+     */
+    byte[] toJson(Transaction t) {
+        payloadBuffer.reset();
+        try (JsonGenerator json = JsonSupport.GENERATORS.createGenerator(payloadBuffer, StandardCharsets.UTF_8)) {
+            json.writeStartObject()
+                .writeStartArray("transactions")
+                .writeStartObject()
+                .write("type", t.type)
+                .write("date", t.date)
+                .write("amount", Utils.formatMinorUnits(t.amount))
+                .write("description", t.description)
+                .write("category_name", t.category);
+            if (t.sourceID == null) {
+                json.write("source_name", DEFAULT_ACCOUNT);
+            } else {
+                json.write("source_id", t.sourceID);
+            }
+            if (t.destinationID == null) {
+                json.write("destination_name", DEFAULT_ACCOUNT);
+            } else {
+                json.write("destination_id", t.destinationID);
+            }
+            json.writeEnd()
+                .writeEnd()
+                .writeEnd();
+        }
+        return payloadBuffer.toByteArray();
+    }
+
+    /**
+     * A submitted transaction: the file it came from and its journal key.
+     */
+    private record Pending(InputFile file, String key) {
+    }
+
+    /**
+     * Submit a transaction, or only print it in dry-run mode or write it to
+     * the --prepare file.
+     *
+     * Files with overlapping date ranges hold the same transactions, so each
+     * transaction content is imported as many times as the file holding it most
+     * often has it: the n-th occurrence in a file only counts if fewer than n
+     * copies were accounted for so far. When resuming, the first copies
+     * accounted for are the ones the journals record as already imported, and
+     * they are skipped. For a single file this boils down to skipping the
+     * journaled transactions, and only their copies are counted.
+     */
+    private void submit(Submitter<Pending> submitter, InputFile file, Transaction t) throws IOException, InterruptedException {
+        String hash = contentHash(t);
+        if (accounted != null) {
+            int occurrence = file.occurrences.merge(hash, 1, Integer::sum);
+            int copies = accounted.getOrDefault(hash, 0);
+            if (occurrence <= copies) {
+                duplicates++;
+                return;
+            }
+            accounted.put(hash, copies + 1);
+            if (copies < committed.getOrDefault(hash, 0)) {
+                skipped++;
+                return;
+            }
+        } else if (committed.containsKey(hash) && file.occurrences.merge(hash, 1, Integer::sum) <= committed.get(hash)) {
+            skipped++;
+            return;
+        }
+        if (existing != null && existing.remove(t.date, t.amount, t.sourceID, t.destinationID, t.description)) {
+            skippedExisting++;
+            return;
+        }
+        byte[] json = toJson(t);
+        if (dryRun) {
+            System.out.println(new String(json, StandardCharsets.UTF_8));
+            return;
+        }
+        if (prepared != null) {
+            prepared.write(json);
+            prepared.write('\n');
+            preparedCount++;
+            return;
+        }
+        submitter.submit(t.date + " " + Utils.formatMinorUnits(t.amount) + " " + t.description,
+                         new Pending(file, hash), json);
+    }
+
+    /**
+     * Fetch the transactions Firefly III already has for the accounts and the
+     * date range of the transactions prepared from all files.
+     */
+    private ExistingTransactions loadExisting(List<InputFile> files) throws IOException, InterruptedException {
+        Set<String> accountIds = new LinkedHashSet<>();
+        String start = null;
+        String end = null;
+        for (InputFile file : files) {
+            for (Transaction t : file.transactions) {
+                if (t.sourceID != null) accountIds.add(t.sourceID);
+                if (t.destinationID != null) accountIds.add(t.destinationID);
+                if (start == null || t.date.compareTo(start) < 0) start = t.date;
+                if (end == null || t.date.compareTo(end) > 0) end = t.date;
+            }
+        }
+        if (accountIds.isEmpty()) {
+            return null;
+        }
+        ExistingTransactions existing = ExistingTransactions.load(this, accountIds, start, end);
+        System.out.println("Found " + existing.size() + " existing transactions between " + start + " and " + end
+                           + " in " + accountIds.size() + " accounts");
+        return existing;
+    }
+
+    /**
+     * Stable hash of the content of a transaction, its key in the journal.
+     */
+    private static String contentHash(Transaction t) {
+        String content = String.join("\u001F", t.type, t.date, Long.toString(t.amount), t.description,
+                                     String.valueOf(t.sourceID), String.valueOf(t.destinationID), String.valueOf(t.category));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Journal a transaction as soon as Firefly III created it, rather than
+     * when it is reported, so that a crash cannot lose it.
+     */
+    private void journal(Submitter.Result<Pending> result) {
+        ImportJournal journal = result.key().file().journal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.record(result.key().key(), result.body());
+        } catch (IOException e) {
+            System.err.println("Warning: could not record transaction in the import journal: " + e.getMessage());
+        }
+    }
+
+    private void report(Submitter.Result<Pending> result) {
+        if (result.succeeded()) {
+            System.out.println("✓ Successfully imported transaction into Firefly III");
+        } else if (result.error() != null) {
+            System.err.println("✗ Failed to import transaction into Firefly III: " + result.error().getMessage());
+        } else {
+            System.err.println("✗ Failed to import transaction into Firefly III. HTTP Status: " + result.status());
+            System.err.println("Response: " + result.body());
+        }
+    }
+
+    /**
+     * Print a summary of the submission and list every failed transaction.
+     *
+     * @return Exit code, non-zero if any transaction failed
+     */
+    private int summarize(Submitter<Pending> submitter) {
+        metrics.add("transactions_imported", submitter.succeeded());
+        metrics.add("transactions_failed", submitter.failures().size());
+        metrics.add("transactions_skipped", skipped + skippedExisting + duplicates);
+        System.out.println("\n✓ Imported " + submitter.succeeded() + " of " + submitter.submitted() + " transactions");
+        if (skipped > 0) {
+            System.out.println("✓ Skipped " + skipped + " transactions imported by an earlier run");
+        }
+        if (skippedExisting > 0) {
+            System.out.println("✓ Skipped " + skippedExisting + " transactions that already exist in Firefly III");
+        }
+        if (duplicates > 0) {
+            System.out.println("✓ Skipped " + duplicates + " transactions already found in another file");
+        }
+        List<Submitter.Result<Pending>> failures = submitter.failures();
+        if (failures.isEmpty()) {
+            return 0;
+        }
+        System.err.println("✗ " + failures.size() + " transactions failed:");
+        for (Submitter.Result<Pending> f : failures) {
+            String reason = f.error() != null ? f.error().toString() : "HTTP " + f.status();
+            System.err.println("  #" + (f.index() + 1) + " " + f.key().file().name() + ": " + f.label() + " (" + reason + ")");
+        }
+        return 1;
+    }
+
+    class Transaction {
+        String type;
+        String date;
+        long amount;
+        String description;
+        String sourceID;
+        String destinationID;
+        String category;
+
+        Transaction(String type, String date, long amount, String description, String sourceID, String destinationID, String category) {
+            if (sourceID == destinationID) {
+                System.out.println("Source ID: " + sourceID + " Destination ID: " + destinationID);
+                System.out.println("Description: " + description);
+                System.out.println("Category: " + category);
+                System.out.println("Amount: " + Utils.formatMinorUnits(amount));
+                System.out.println("Transaction Type: " + type);
+                throw new IllegalArgumentException("sourceID and destinationID cannot be the same");
+            }
+            this.type = type;
+            this.date = date;
+            this.amount = amount;
+            this.description = description;
+            this.sourceID = sourceID;
+            this.category = category;
+            this.destinationID = destinationID;
+        }
     }
 
-    public static class AccountAttributes {
-        public String name;
-        public String account_number;
-        public String iban;
-        public String notes;
+    private String findAccountIdForProduct(String productNumber) throws IOException, InterruptedException {
+        if (productNumber == null || productNumber.isBlank()) {
+            return null;
+        }
+
+        // Check cache first ("not found" is cached as NO_ACCOUNT)
+        String accountId = accountCache.get(productNumber);
+        if (accountId == null) {
+            resolveProducts(List.of(productNumber));
+            accountId = accountCache.get(productNumber);
+        }
+        return NO_ACCOUNT.equals(accountId) ? null : accountId;
+    }
+
+    /**
+     * Resolve all given product numbers against the account index, caching the
+     * results (including "not found" as NO_ACCOUNT). With --create-accounts,
+     * accounts are then created for the products still not found.
+     */
+    private void resolveProducts(Collection<String> productNumbers) throws IOException, InterruptedException {
+        resolveLock.lock();
+        try {
+            Metrics.Phase phase = metrics.phase("resolve");
+            try {
+                resolveMissingProducts(productNumbers);
+            } finally {
+                phase.end();
+            }
+            if (createAccounts) {
+                createMissingAccounts(productNumbers);
+            }
+        } finally {
+            resolveLock.unlock();
+        }
+    }
+
+    /**
+     * Create an asset account for every given product cached as not found, all
+     * in parallel, and add them to the account index and both caches. Products
+     * that look like card numbers get credit card accounts. Products whose
+     * account could not be created stay not found, so their rows are skipped.
+     */
+    private void createMissingAccounts(Collection<String> productNumbers) throws InterruptedException {
+        List<String> missing = productNumbers.stream()
+                .filter(p -> p != null && NO_ACCOUNT.equals(accountCache.get(p)))
+                .distinct()
+                .toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (dryRun) {
+            for (String productNumber : missing) {
+                System.out.println("Would create account \"" + accountName(productNumber) + "\" for product " + productNumber);
+            }
+            return;
+        }
+
+        // Written by the listener one result at a time, read once the submitter is closed
+        Map<String, String> created = new HashMap<>();
+        Submitter<String> submitter = new Submitter<>(this, "/api/v1/accounts", ACCOUNT_CREATION_CONCURRENCY, result -> {
+            if (result.succeeded() && result.body() != null) {
+                System.out.println("✓ Created account \"" + result.label() + "\" for product " + result.key());
+                created.put(result.key(), result.body());
+            } else if (result.error() != null) {
+                System.err.println("✗ Could not create account for product " + result.key() + ": " + result.error().getMessage());
+            } else {
+                System.err.println("✗ Could not create account for product " + result.key() + ". HTTP Status: " + result.status());
+                System.err.println("Response: " + result.body());
+            }
+        });
+        Metrics.Phase phase = metrics.phase("create_accounts");
+        try (submitter) {
+            for (String productNumber : missing) {
+                String name = accountName(productNumber);
+                submitter.submit(name, productNumber, accountJson(name, productNumber));
+            }
+        } finally {
+            phase.end();
+        }
+        metrics.add("accounts_created", created.size());
+        if (created.isEmpty()) {
+            return;
+        }
+
+        created.forEach((productNumber, accountId) -> {
+            accountCache.put(productNumber, accountId);
+            if (accountIndex != null) {
+                AccountIndex.AccountItem account = new AccountIndex.AccountItem();
+                account.id = accountId;
+                account.attributes = new AccountIndex.AccountAttributes();
+                account.attributes.name = accountName(productNumber);
+                account.attributes.account_number = productNumber;
+                accountIndex.add(account);
+            }
+        });
+        persistentCache.putAll(created);
+        persistentCache.accountsCreated(created.size());
+        try {
+            persistentCache.save();
+        } catch (IOException e) {
+            System.err.println("Warning: could not write account cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Name of the account created for a product: the friendly name of the
+     * product in the export followed by its number, or just the number.
+     */
+    private String accountName(String productNumber) {
+        String raw = productNames.get(productNumber);
+        int open = raw == null ? -1 : raw.indexOf('(');
+        int close = open < 0 ? -1 : raw.indexOf(')', open);
+        String friendlyName = close > open ? raw.substring(open + 1, close).strip() : "";
+        return friendlyName.isEmpty() ? "Piraeus " + productNumber : friendlyName + " " + productNumber;
+    }
+
+    private static byte[] accountJson(String name, String productNumber) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator json = JsonSupport.GENERATORS.createGenerator(out, StandardCharsets.UTF_8)) {
+            json.writeStartObject()
+                .write("name", name)
+                .write("type", "asset")
+                .write("account_number", productNumber);
+            if (isCardNumber(productNumber)) {
+                json.write("account_role", "ccAsset")
+                    .write("credit_card_type", "monthlyFull")
+                    .write("monthly_payment_date", LocalDate.now().withDayOfMonth(1).toString());
+            } else {
+                json.write("account_role", "defaultAsset");
+            }
+            json.writeEnd();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Card numbers have 16 digits, some of which may be masked, unlike the 13
+     * digits of account numbers.
+     */
+    private static boolean isCardNumber(String productNumber) {
+        return productNumber.length() == 16
+                && productNumber.chars().allMatch(c -> Character.isDigit(c) || c == 'X' || c == 'x' || c == '*');
+    }
+
+    /**
+     * Resolve the products not cached in memory from the persistent cache, and
+     * the rest from the account index. Counts every distinct product once, as
+     * a hit of either cache or as a miss.
+     */
+    private void resolveMissingProducts(Collection<String> productNumbers) throws IOException, InterruptedException {
+        Set<String> missing = new LinkedHashSet<>();
+        int hits = 0;
+        for (String productNumber : new LinkedHashSet<>(productNumbers)) {
+            if (productNumber == null || productNumber.isBlank()) {
+                continue;
+            }
+            if (accountCache.containsKey(productNumber)) {
+                hits++;
+            } else {
+                missing.add(productNumber);
+            }
+        }
+        metrics.add("account_cache_hits", hits);
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        if (persistentCache == null) {
+            persistentCache = openPersistentCache();
+        }
+        for (Iterator<String> it = missing.iterator(); it.hasNext(); ) {
+            String productNumber = it.next();
+            if (persistentCache.contains(productNumber)) {
+                metrics.increment("account_persistent_cache_hits");
+                accountCache.put(productNumber, Objects.requireNonNullElse(persistentCache.get(productNumber), NO_ACCOUNT));
+                it.remove();
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        if (accountIndex == null) {
+            accountIndex = AccountIndex.load(this);
+            System.out.println("Loaded " + accountIndex.size() + " accounts from Firefly III");
+            persistentCache.validate(accountIndex.size());
+        }
+        Map<String, String> resolved = accountIndex.resolve(missing);
+        metrics.add("account_cache_misses", missing.size());
+        resolved.forEach((productNumber, accountId) -> accountCache.put(productNumber, Objects.requireNonNullElse(accountId, NO_ACCOUNT)));
+        persistentCache.putAll(resolved);
+        try {
+            persistentCache.save();
+        } catch (IOException e) {
+            System.err.println("Warning: could not write account cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the accounts loaded by an earlier run if the number of accounts
+     * changed since, e.g. because accounts were added between two imports of a
+     * long-running command. Costs a single small request.
+     */
+    void refreshAccountsIfChanged() throws IOException {
+        if (persistentCache == null || persistentCache.validate(AccountIndex.count(this))) {
+            return;
+        }
+        System.out.println("Accounts changed since they were loaded, reloading them on the next lookup");
+        accountIndex = null;
+        accountCache.clear();
+    }
+
+    /**
+     * Open the persistent account cache and check it against the current number
+     * of accounts, which costs a single small request.
+     */
+    private AccountCache openPersistentCache() throws IOException {
+        Path file = AccountCache.fileFor(cacheDir, fireflyUrl, apiToken);
+        Duration ttl = Duration.ofHours(cacheTtlHours);
+        if (refreshAccounts) {
+            return AccountCache.empty(file, ttl);
+        }
+        AccountCache cache = AccountCache.load(file, ttl);
+        if (!cache.isEmpty() && !cache.validate(AccountIndex.count(this))) {
+            System.out.println("Accounts changed since the last run, rebuilding the account cache");
+        }
+        return cache;
+    }
+
+}
+
+@Command(name = "watch", description = "Watch a directory and import every Piraeus export written into it, keeping the HTTP client and the accounts warm between files")
+class Watch extends ImportOptions implements Callable<Integer> {
+
+    @Parameters(paramLabel = "<directory>", description = "Directory to watch for new exports")
+    Path directory;
+
+    @Option(names = {"--done-dir"}, description = "Directory imported files are moved to (default: <directory>/done)")
+    Path doneDir;
+
+    @Option(names = {"--failed-dir"}, description = "Directory files that failed to import are moved to (default: <directory>/failed)")
+    Path failedDir;
+
+    @Option(names = {"--settle"},
+            defaultValue = "500",
+            description = "Milliseconds the size and modification time of a new file must stay unchanged before it is imported (default: ${DEFAULT-VALUE})")
+    long settleMillis;
+
+    /**
+     * Size and modification time of a file waiting to settle, and since when
+     * they are unchanged.
+     */
+    private record Observation(long size, FileTime modified, long since) {
+    }
+
+    // Files waiting to settle, in the order they appeared; null until first observed
+    private final Map<Path, Observation> pending = new LinkedHashMap<>();
+
+    /**
+     * Import the files already in the directory, then every file written into
+     * it, until interrupted. All imports run on the same importer, so only the
+     * first one pays for loading the accounts and for a cold JIT.
+     *
+     * @return Exit code
+     */
+    @Override
+    public Integer call() {
+        if (!Files.isDirectory(directory)) {
+            System.err.println("✗ Not a directory: " + directory);
+            return 1;
+        }
+        if (settleMillis < 0) {
+            System.err.println("✗ Settle time cannot be negative");
+            return 1;
+        }
+        Path done = doneDir != null ? doneDir : directory.resolve("done");
+        Path failed = failedDir != null ? failedDir : directory.resolve("failed");
+        PiraeusImporter importer = new PiraeusImporter();
+        copyTo(importer);
+
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            if (!dryRun) {
+                Files.createDirectories(done);
+                Files.createDirectories(failed);
+            }
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + directory + " for new exports");
+            scan();
+            long pollMillis = Math.max(10, settleMillis / 4);
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watcher.take() : watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, look at the directory itself
+                            scan();
+                        } else {
+                            Path file = directory.resolve((Path) event.context());
+                            if (PiraeusImporter.isDataFile(file)) {
+                                pending.putIfAbsent(file, null);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.err.println("✗ " + directory + " is no longer accessible");
+                        return 1;
+                    }
+                }
+                for (Path file : settled()) {
+                    importFile(importer, file, done, failed);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Could not watch " + directory + ": " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            return 0;
+        }
+    }
+
+    private void scan() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(PiraeusImporter::isDataFile).sorted().forEach(file -> pending.putIfAbsent(file, null));
+        }
+    }
+
+    /**
+     * Observe the pending files and take out the ones whose size and
+     * modification time did not change for the settle time. Files that
+     * disappeared are dropped.
+     */
+    private List<Path> settled() throws IOException {
+        List<Path> settled = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Observation>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Observation> entry = it.next();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                it.remove();
+                continue;
+            }
+            Observation previous = entry.getValue();
+            if (previous == null || previous.size() != attributes.size() || !previous.modified().equals(attributes.lastModifiedTime())) {
+                entry.setValue(new Observation(attributes.size(), attributes.lastModifiedTime(), now));
+            } else if (now - previous.since() >= TimeUnit.MILLISECONDS.toNanos(settleMillis)) {
+                settled.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Import a settled file and move it, along with its journal, to the done or
+     * the failed directory. In dry-run mode the file stays where it is.
+     */
+    private void importFile(PiraeusImporter importer, Path file, Path done, Path failed) {
+        long start = System.nanoTime();
+        importer.metrics = new Metrics();
+        try {
+            importer.refreshAccountsIfChanged();
+        } catch (IOException e) {
+            System.err.println("Warning: could not check the accounts for changes: " + e.getMessage());
+        }
+        int exitCode = importer.importFiles(List.of(file));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (dryRun) {
+            System.out.println((exitCode == 0 ? "✓ Parsed " : "✗ Could not parse ") + file.getFileName() + " in " + millis + " ms");
+            return;
+        }
+        try {
+            Path target = moveTo(file, exitCode == 0 ? done : failed);
+            if (exitCode == 0) {
+                System.out.println("✓ Imported " + file.getFileName() + " in " + millis + " ms, moved to " + target);
+            } else {
+                System.err.println("✗ Import of " + file.getFileName() + " failed, moved to " + target);
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Could not move " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Move a file and its journal into a directory, without replacing a file
+     * of the same name imported before.
+     */
+    private static Path moveTo(Path file, Path directory) throws IOException {
+        String name = file.getFileName().toString();
+        Path target = directory.resolve(name);
+        for (int i = 1; Files.exists(target); i++) {
+            target = directory.resolve(name + "." + i);
+        }
+        Files.move(file, target);
+        Path journal = ImportJournal.fileFor(file);
+        if (Files.exists(journal)) {
+            Files.move(journal, ImportJournal.fileFor(target), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+}
+
+@Command(name = "replay", description = "Submit the transactions of a file written by import-piraeus-data --prepare")
+class Replay extends ReusableOptions implements Callable<Integer> {
+
+    @Parameters(paramLabel = "<prepared-file>", description = "NDJSON file of transactions, gzip compressed if it ends in .gz")
+    Path file;
+
+    @Option(names = {"-c", "--concurrency"},
+            defaultValue = "8",
+            description = "Maximum number of transactions submitted in parallel (default: ${DEFAULT-VALUE})")
+    int concurrency;
+
+    @Option(names = {"--resume"}, description = "Skip transactions recorded in the import journal of the file by an earlier run")
+    boolean resume = false;
+
+    @Option(names = {"--progress"},
+            defaultValue = "5",
+            description = "Seconds between progress reports, 0 for none (default: ${DEFAULT-VALUE})")
+    int progressSeconds;
+
+    @Option(names = {"--metrics-out"},
+            description = "Write metrics to this file, in the Prometheus textfile format if it ends in .prom, as JSON otherwise")
+    Path metricsOut;
+
+    // Updated by the submitter's listener, read by progress reports
+    private final LongAdder imported = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Read the file line by line and submit every line as is, with at most
+     * `concurrency` requests in flight, so that only a bounded part of the
+     * file is held in memory. Lines are journaled by a hash of their content,
+     * like the transactions of an import.
+     *
+     * @return Exit code
+     */
+    @Override
+    public Integer call() {
+        if (concurrency < 1) {
+            System.err.println("✗ Concurrency must be at least 1");
+            return 1;
+        }
+        if (!Files.isRegularFile(file)) {
+            System.err.println("✗ File not found: " + file);
+            return 1;
+        }
+        System.out.println("Replaying transactions from: " + file);
+        int exitCode = replay();
+        System.out.println(metrics.summary());
+        if (metricsOut != null) {
+            try {
+                metrics.write(metricsOut);
+            } catch (IOException e) {
+                System.err.println("Warning: could not write metrics to " + metricsOut + ": " + e.getMessage());
+            }
+        }
+        return exitCode;
+    }
+
+    private int replay() {
+        Path journalFile = ImportJournal.fileFor(file);
+        Map<String, Integer> committed = new HashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        int lines = 0;
+        int skipped = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ImportJournal journal = new ImportJournal(journalFile)) {
+            if (resume) {
+                int count = ImportJournal.readCommitted(journalFile, committed);
+                System.out.println("Resuming: " + count + " transactions already imported according to " + journalFile);
+            }
+            long size = channel.size();
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+            if (file.getFileName().toString().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 1 << 16);
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Submitter<String> submitter = new Submitter<>(this, "/api/v1/transactions", concurrency,
+                                                               result -> journal(journal, result), this::report);
+            long start = System.nanoTime();
+            long nextProgress = start + TimeUnit.SECONDS.toNanos(progressSeconds);
+            Metrics.Phase phase = metrics.phase("submit");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+                 submitter) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    lines++;
+                    if (line.isBlank()) continue;
+                    byte[] body = line.getBytes(StandardCharsets.UTF_8);
+                    String hash = HexFormat.of().formatHex(digest.digest(body), 0, 16);
+                    // Only the copies of journaled transactions need counting
+                    if (committed.containsKey(hash) && occurrences.merge(hash, 1, Integer::sum) <= committed.get(hash)) {
+                        skipped++;
+                        continue;
+                    }
+                    submitter.submit("line " + lines, hash, body);
+                    if (progressSeconds > 0 && System.nanoTime() - nextProgress >= 0) {
+                        // The position is in the file as stored, so it is also right for compressed files
+                        System.out.printf("Progress: %.0f%%, %d submitted, %d imported, %d failed, %.1f transactions/s%n",
+                                          100.0 * channel.position() / Math.max(1, size), submitter.submitted(),
+                                          imported.sum(), failed.sum(), imported.sum() / ((System.nanoTime() - start) / 1e9));
+                        nextProgress = System.nanoTime() + TimeUnit.SECONDS.toNanos(progressSeconds);
+                    }
+                }
+            } finally {
+                phase.end();
+            }
+            metrics.add("rows", lines);
+            metrics.add("transactions_imported", submitter.succeeded());
+            metrics.add("transactions_failed", submitter.failures().size());
+            metrics.add("transactions_skipped", skipped);
+            System.out.println("\n✓ Imported " + submitter.succeeded() + " of " + submitter.submitted() + " transactions");
+            if (skipped > 0) {
+                System.out.println("✓ Skipped " + skipped + " transactions imported by an earlier run");
+            }
+            List<Submitter.Result<String>> failures = submitter.failures();
+            if (failures.isEmpty()) {
+                return 0;
+            }
+            System.err.println("✗ " + failures.size() + " transactions failed:");
+            for (Submitter.Result<String> f : failures) {
+                String reason = f.error() != null ? f.error().toString() : "HTTP " + f.status();
+                System.err.println("  " + f.label() + " (" + reason + ")");
+            }
+            return 1;
+        } catch (IOException e) {
+            System.err.println("✗ Error reading file: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return 1;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Journal successful results and print failures as they come; successes
+     * only show up in the progress reports.
+     */
+    private static void journal(ImportJournal journal, Submitter.Result<String> result) {
+        try {
+            journal.record(result.key(), result.body());
+        } catch (IOException e) {
+            System.err.println("Warning: could not record transaction in the import journal: " + e.getMessage());
+        }
+    }
+
+    private void report(Submitter.Result<String> result) {
+        if (result.succeeded()) {
+            imported.increment();
+        } else {
+            failed.increment();
+            if (result.error() != null) {
+                System.err.println("✗ Failed to import " + result.label() + ": " + result.error().getMessage());
+            } else {
+                System.err.println("✗ Failed to import " + result.label() + ". HTTP Status: " + result.status());
+                System.err.println("Response: " + result.body());
+            }
+        }
+    }
+}
+
+@Command(name = "bench", description = "Benchmark the import of a synthetic export against an embedded Firefly III stand-in")
+class Bench implements Callable<Integer> {
+
+    @Option(names = {"--rows"}, defaultValue = "10000", description = "Number of rows of the synthetic export (default: ${DEFAULT-VALUE})")
+    int rows;
+
+    @Option(names = {"--products"}, defaultValue = "20", description = "Number of products in the synthetic export (default: ${DEFAULT-VALUE})")
+    int products;
+
+    @Option(names = {"--extra-accounts"}, defaultValue = "200",
+            description = "Accounts of the stand-in not matching any product, listed before the matching ones (default: ${DEFAULT-VALUE})")
+    int extraAccounts;
+
+    @Option(names = {"--latency"}, defaultValue = "5", description = "Milliseconds the stand-in waits before answering (default: ${DEFAULT-VALUE})")
+    long latencyMillis;
+
+    @Option(names = {"--jitter"}, defaultValue = "0", description = "Maximum random milliseconds added to the latency (default: ${DEFAULT-VALUE})")
+    long jitterMillis;
+
+    @Option(names = {"--error-rate"}, defaultValue = "0", description = "Fraction of requests answered with 500 (default: ${DEFAULT-VALUE})")
+    double errorRate;
+
+    @Option(names = {"--throttle-rate"}, defaultValue = "0", description = "Fraction of requests answered with 429 (default: ${DEFAULT-VALUE})")
+    double throttleRate;
+
+    @Option(names = {"--retry-after"}, defaultValue = "1", description = "Retry-After seconds sent with a 429 (default: ${DEFAULT-VALUE})")
+    int retryAfterSeconds;
+
+    @Option(names = {"--seed"}, defaultValue = "42", description = "Seed of the export generator and the fault injection (default: ${DEFAULT-VALUE})")
+    long seed;
+
+    @Option(names = {"-c", "--concurrency"}, defaultValue = "8", description = "Concurrency of the import (default: ${DEFAULT-VALUE})")
+    int concurrency;
+
+    @Option(names = {"--stream"}, description = "Import in streaming mode")
+    boolean stream = false;
+
+    @Option(names = {"--metrics-out"}, description = "Also write the metrics of the import to this file")
+    Path metricsOut;
+
+    @Option(names = {"--verbose"}, description = "Show the output of the import")
+    boolean verbose = false;
+
+    @Override
+    public Integer call() {
+        if (rows < 1 || products < 1 || extraAccounts < 0 || concurrency < 1) {
+            System.err.println("✗ --rows, --products and --concurrency must be at least 1, --extra-accounts at least 0");
+            return 1;
+        }
+        if (errorRate < 0 || throttleRate < 0 || errorRate + throttleRate > 1) {
+            System.err.println("✗ --error-rate and --throttle-rate must be fractions adding up to at most 1");
+            return 1;
+        }
+        Path workDir = null;
+        try {
+            workDir = Files.createTempDirectory("firefly-importer-bench");
+            SyntheticExport export = new SyntheticExport(products, seed);
+            Path dataFile = workDir.resolve("export.txt");
+            export.write(dataFile, rows);
+            System.out.println("Generated " + rows + " rows over " + products + " products in " + dataFile);
+
+            try (FireflyStandIn standIn = new FireflyStandIn(Duration.ofMillis(latencyMillis), Duration.ofMillis(jitterMillis),
+                    errorRate, throttleRate, retryAfterSeconds, seed)) {
+                for (int i = 0; i < extraAccounts; i++) {
+                    standIn.addAccount("Other " + (i + 1), null, null, null);
+                }
+                for (SyntheticExport.Product product : export.products()) {
+                    standIn.addAccount(product.label(), product.accountNumber(), product.iban(), product.notes());
+                }
+                standIn.start();
+                System.out.println("Firefly III stand-in listening at " + standIn.url());
+
+                List<String> args = new ArrayList<>(List.of(
+                        "--url", standIn.url(),
+                        "--token", "bench",
+                        "--cache-dir", workDir.resolve("cache").toString(),
+                        "--concurrency", Integer.toString(concurrency)));
+                if (stream) {
+                    args.add("--stream");
+                }
+                if (metricsOut != null) {
+                    args.addAll(List.of("--metrics-out", metricsOut.toString()));
+                }
+                args.add(dataFile.toString());
+
+                PiraeusImporter importer = new PiraeusImporter();
+                importer.metrics = new Metrics(true);
+                PrintStream out = System.out;
+                PrintStream err = System.err;
+                if (!verbose) {
+                    PrintStream discard = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+                    System.setOut(discard);
+                    System.setErr(discard);
+                }
+                long start = System.nanoTime();
+                int exitCode;
+                try {
+                    exitCode = new CommandLine(importer).execute(args.toArray(String[]::new));
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+                report(importer.metrics, standIn, (System.nanoTime() - start) / 1e9, exitCode);
+                return exitCode;
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Benchmark failed: " + e.getMessage());
+            return 1;
+        } finally {
+            if (workDir != null) {
+                deleteRecursively(workDir);
+            }
+        }
+    }
+
+    private void report(Metrics metrics, FireflyStandIn standIn, double seconds, int exitCode) {
+        System.out.println("\nBenchmark results:");
+        System.out.printf("  Import exit code:  %d%n", exitCode);
+        System.out.printf("  Wall time:         %.3f s%n", seconds);
+        System.out.printf("  Rows:              %d (%.1f rows/s)%n", metrics.counter("rows"), metrics.counter("rows") / seconds);
+        System.out.printf("  Transactions:      %d imported, %d failed (%.1f transactions/s)%n",
+                metrics.counter("transactions_imported"), metrics.counter("transactions_failed"),
+                metrics.counter("transactions_imported") / seconds);
+        System.out.printf("  Server:            %d requests, %d answered with 500, %d with 429%n",
+                standIn.requests(), standIn.errors(), standIn.throttled());
+        System.out.println("  Latency (ms)          count      p50      p90      p99      max");
+        metrics.latencySamples().forEach((endpoint, nanos) ->
+            System.out.printf("  %-20s %6d %8.2f %8.2f %8.2f %8.2f%n", endpoint, nanos.length,
+                    percentile(nanos, 0.5), percentile(nanos, 0.9), percentile(nanos, 0.99), nanos[nanos.length - 1] / 1e6));
     }
 
-}
\ No newline at end of file
+    // Nearest-rank percentile of sorted latencies, in milliseconds
+    private static double percentile(long[] sortedNanos, double q) {
+        int rank = (int) Math.ceil(q * sortedNanos.length);
+        return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    System.err.println("Warning: could not delete " + path + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Warning: could not delete " + dir + ": " + e.getMessage());
+        }
+    }
+}
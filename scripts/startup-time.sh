@@ -0,0 +1,68 @@
+#!/usr/bin/env bash
+#
+# Compare the startup time of the ways to run the importer, as a Markdown table
+# of median wall times over RUNS runs (default: 10).
+#
+# Variants without what they need are skipped:
+# - jbang:         jbang on the PATH
+# - jvm, jvm+cds:  mvn -Pappcds package (the jar with all dependencies and its CDS archive)
+# - native:        mvn -Pnative package, with a GraalVM JDK as JAVA_HOME
+#
+# Workloads:
+# - version:  parse the command line and print the version
+# - import:   offline import of 100 synthetic rows against the embedded stand-in (bench)
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+RUNS=${RUNS:-10}
+JAVA=${JAVA:-java}
+JAR=$(ls cli/target/firefly-importer-*-all.jar 2>/dev/null | head -n 1 || true)
+JSA=cli/target/firefly-importer.jsa
+NATIVE=cli/target/firefly-importer
+
+WORKLOADS=("--version" "bench --rows 100 --latency 0")
+
+# Median wall time of a command in milliseconds
+median_ms() {
+    local times=()
+    for ((i = 0; i < RUNS; i++)); do
+        local start end
+        start=$(date +%s%N)
+        "$@" > /dev/null 2>&1
+        end=$(date +%s%N)
+        times+=($(( (end - start) / 1000000 )))
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk '{ t[NR] = $1 } END { print (NR % 2) ? t[(NR + 1) / 2] : int((t[NR / 2] + t[NR / 2 + 1]) / 2) }'
+}
+
+row() {
+    local name=$1
+    shift
+    local line="| $name"
+    for workload in "${WORKLOADS[@]}"; do
+        # Word splitting of the workload is intended
+        # shellcheck disable=SC2086
+        line="$line | $(median_ms "$@" $workload) ms"
+    done
+    echo "$line |"
+}
+
+echo "| Variant | version | import (100 rows) |"
+echo "|---|---|---|"
+if command -v jbang > /dev/null; then
+    # Warm the JBang cache, so that only the startup is measured
+    jbang firefly-importer.java --version > /dev/null 2>&1
+    row "jbang" jbang firefly-importer.java
+fi
+if [[ -n "$JAR" ]]; then
+    row "jvm" "$JAVA" -jar "$JAR"
+    if [[ -f "$JSA" ]]; then
+        row "jvm+cds" "$JAVA" -XX:SharedArchiveFile="$JSA" -jar "$JAR"
+        row "jvm+cds, C1 only" "$JAVA" -XX:SharedArchiveFile="$JSA" -XX:TieredStopAtLevel=1 -jar "$JAR"
+    fi
+fi
+if [[ -x "$NATIVE" ]]; then
+    row "native" "$NATIVE"
+fi